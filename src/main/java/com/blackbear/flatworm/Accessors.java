@@ -0,0 +1,180 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Direct accessors generated with <code>LambdaMetafactory</code>: the setters, converters and constructors used by
+ * the parse plans are bound to small generated classes that call the target method without reflection, so the JIT
+ * can inline them.
+ * <p>
+ * Every method returns null when the accessor cannot be generated (security manager, class not visible from the
+ * class loader of flatworm, non public members, ...): the caller must use the reflective path.
+ * </p>
+ */
+public class Accessors
+{
+  private static final Log log = LogFactory.getLog(Accessors.class);
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private Accessors()
+  {
+  }
+
+  /**
+   * @return true if accessors can be generated in this environment
+   */
+  @SuppressWarnings("deprecation")
+  public static boolean isAvailable()
+  {
+    return System.getSecurityManager() == null;
+  }
+
+  /**
+   * Generate a setter.
+   * @param m the write method (one parameter)
+   * @return the accessor or null
+   */
+  @SuppressWarnings("unchecked")
+  public static BiConsumer<Object, Object> setter(Method m)
+  {
+    if(!isAccessible(m))
+      return null;
+
+    try
+    {
+      MethodHandle target = lookup.unreflect(m);
+      MethodType type = MethodType.methodType(void.class, m.getDeclaringClass(), box(m.getParameterTypes()[0]));
+      CallSite site = LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(BiConsumer.class),
+         MethodType.methodType(void.class, Object.class, Object.class), target, type);
+      return (BiConsumer<Object, Object>) site.getTarget().invoke();
+    }
+    catch(Throwable ex)
+    {
+      log.debug("Using reflection for " + m, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Generate a converter bound to its instance.
+   * @param converter the converter object
+   * @param m the conversion method (value and options)
+   * @return the accessor or null
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> BiFunction<T, Object, Object> converter(Object converter, Method m)
+  {
+    if(!isAccessible(m) || Modifier.isStatic(m.getModifiers()) || !isVisible(converter.getClass()))
+      return null;
+
+    try
+    {
+      MethodHandle target = lookup.unreflect(m);
+      Class<?>[] params = m.getParameterTypes();
+      MethodType type = MethodType.methodType(box(m.getReturnType()), params[0], params[1]);
+      CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+         MethodType.methodType(BiFunction.class, m.getDeclaringClass()),
+         MethodType.methodType(Object.class, Object.class, Object.class), target, type);
+      return (BiFunction<T, Object, Object>) site.getTarget().invoke(converter);
+    }
+    catch(Throwable ex)
+    {
+      log.debug("Using reflection for " + m, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Generate a factory calling the public no arguments constructor.
+   * @param cls the class
+   * @return the accessor or null
+   */
+  @SuppressWarnings("unchecked")
+  public static Supplier<Object> constructor(Class<?> cls)
+  {
+    if(cls == null || !isVisible(cls) || Modifier.isAbstract(cls.getModifiers()))
+      return null;
+
+    try
+    {
+      Constructor<?> c = cls.getConstructor();
+      MethodHandle target = lookup.unreflectConstructor(c);
+      CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+         MethodType.methodType(Object.class), target, MethodType.methodType(cls));
+      return (Supplier<Object>) site.getTarget().invoke();
+    }
+    catch(Throwable ex)
+    {
+      log.debug("Using reflection for " + cls, ex);
+      return null;
+    }
+  }
+
+  protected static boolean isAccessible(Method m)
+  {
+    if(!isAvailable() || !Modifier.isPublic(m.getModifiers()) || !isVisible(m.getDeclaringClass()))
+      return false;
+
+    for(Class<?> p : m.getParameterTypes())
+    {
+      if(!isVisible(p))
+        return false;
+    }
+    return isVisible(m.getReturnType());
+  }
+
+  /**
+   * The generated classes are defined in the class loader of flatworm: they can only reference public classes
+   * visible from it.
+   */
+  protected static boolean isVisible(Class<?> cls)
+  {
+    while(cls.isArray())
+      cls = cls.getComponentType();
+
+    if(cls.isPrimitive())
+      return true;
+
+    if(!Modifier.isPublic(cls.getModifiers()))
+      return false;
+
+    try
+    {
+      return Class.forName(cls.getName(), false, Accessors.class.getClassLoader()) == cls;
+    }
+    catch(ClassNotFoundException | LinkageError ex)
+    {
+      return false;
+    }
+  }
+
+  protected static Class<?> box(Class<?> cls)
+  {
+    return MethodType.methodType(cls).wrap().returnType();
+  }
+}
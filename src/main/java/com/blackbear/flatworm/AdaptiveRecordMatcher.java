@@ -0,0 +1,141 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record matcher that learns which records are more frequent.
+ * <p>
+ * The records that cannot match the same line of any other record (see <code>RecordMatcher.canOverlap()</code>)
+ * are tried first, ordered by the number of lines they matched; the order is updated every REORDER_INTERVAL
+ * lines. If none of them matches, the lookup of <code>RecordMatcher</code> is used for the other records, in
+ * declaration order. Since an exclusive record is the only one that can match its lines, the result is always the
+ * same of the declaration order.
+ * </p>
+ * <p>
+ * Counters are updated without synchronization when the format is shared by several threads: a lost update can
+ * only delay a reordering.
+ * </p>
+ */
+public class AdaptiveRecordMatcher extends RecordMatcher
+{
+  public static final int REORDER_INTERVAL = 4096;
+
+  // indexes of the exclusive records, by decreasing frequency; replaced (never modified) on reorder
+  protected volatile int[] ordered;
+  // hit counts, indexed like records
+  protected final int[] hits;
+  protected int sinceReorder = 0;
+
+  public AdaptiveRecordMatcher(List<Record> recordOrder)
+  {
+    super(recordOrder);
+    hits = new int[records.length];
+
+    List<Integer> exclusive = new ArrayList<Integer>();
+    for(int i = 0; i < records.length; i++)
+    {
+      if(isExclusive(i))
+        exclusive.add(i);
+    }
+
+    ordered = new int[exclusive.size()];
+    for(int i = 0; i < ordered.length; i++)
+      ordered[i] = exclusive.get(i);
+  }
+
+  protected boolean isExclusive(int index)
+  {
+    if(!canMatch(records[index]))
+      return false;
+
+    for(int i = 0; i < records.length; i++)
+    {
+      if(i != index && canOverlap(records[index], records[i]))
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public Record match(CharSequence line)
+  {
+    int[] candidates = ordered;
+    for(int i = 0; i < candidates.length; i++)
+    {
+      Record r = records[candidates[i]];
+      if(r.matchesLine(line, null))
+      {
+        hit(candidates[i]);
+        return r;
+      }
+    }
+
+    return super.match(line);
+  }
+
+  protected void hit(int index)
+  {
+    hits[index]++;
+
+    if(++sinceReorder >= REORDER_INTERVAL)
+    {
+      sinceReorder = 0;
+      reorder();
+    }
+  }
+
+  /**
+   * Sort the exclusive records by hit count and halve the counts, so the order follows changes in the input.
+   */
+  protected void reorder()
+  {
+    int[] tmp = ordered.clone();
+    int[] count = new int[tmp.length];
+    for(int i = 0; i < tmp.length; i++)
+    {
+      count[i] = hits[tmp[i]];
+      hits[tmp[i]] >>= 1;
+    }
+
+    // insertion sort: there are a few records and they are almost always already sorted
+    for(int i = 1; i < tmp.length; i++)
+    {
+      for(int j = i; j > 0 && count[j] > count[j - 1]; j--)
+      {
+        int t = tmp[j];
+        tmp[j] = tmp[j - 1];
+        tmp[j - 1] = t;
+        t = count[j];
+        count[j] = count[j - 1];
+        count[j - 1] = t;
+      }
+    }
+
+    ordered = tmp;
+  }
+
+  /**
+   * @return the exclusive records in the current order of the checks
+   */
+  public List<Record> getCheckOrder()
+  {
+    List<Record> l = new ArrayList<Record>();
+    for(int i : ordered)
+      l.add(records[i]);
+    return l;
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A <code>CharSequence</code> window over raw bytes in a single byte encoding.
+ * Characters are decoded only when requested: toString(start, end) decodes just the specified range.
+ */
+public class ByteCharSequence implements CharSequence
+{
+  protected final SingleByteCharset charset;
+  protected ByteBuffer buffer;
+  protected int offset;
+  protected int length;
+
+  public ByteCharSequence(SingleByteCharset charset)
+  {
+    this.charset = charset;
+  }
+
+  public ByteCharSequence(SingleByteCharset charset, ByteBuffer buffer, int offset, int length)
+  {
+    this.charset = charset;
+    reset(buffer, offset, length);
+  }
+
+  /**
+   * Move the window.
+   * @param buffer the buffer (position and limit are ignored)
+   * @param offset absolute offset of first byte
+   * @param length number of bytes
+   * @return this
+   */
+  public ByteCharSequence reset(ByteBuffer buffer, int offset, int length)
+  {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  public SingleByteCharset getCharset()
+  {
+    return charset;
+  }
+
+  public ByteBuffer getBuffer()
+  {
+    return buffer;
+  }
+
+  public int getOffset()
+  {
+    return offset;
+  }
+
+  @Override
+  public int length()
+  {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index)
+  {
+    if(index < 0 || index >= length)
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+
+    return charset.decode(buffer.get(offset + index));
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end)
+  {
+    checkRange(start, end);
+    return new ByteCharSequence(charset, buffer, offset + start, end - start);
+  }
+
+  /**
+   * Decode only a portion of the window.
+   * @param start start index (inclusive)
+   * @param end end index (exclusive)
+   * @return the decoded string
+   */
+  public String toString(int start, int end)
+  {
+    checkRange(start, end);
+    return charset.decode(buffer, offset + start, end - start);
+  }
+
+  @Override
+  public String toString()
+  {
+    return charset.decode(buffer, offset, length);
+  }
+
+  protected void checkRange(int start, int end)
+  {
+    if(start < 0 || end > length || start > end)
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+  }
+}
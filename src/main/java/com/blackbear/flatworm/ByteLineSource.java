@@ -0,0 +1,124 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Line source for single byte encodings: lines are framed on the raw bytes read from the stream and returned as
+ * <code>ByteCharSequence</code> windows, without decoding the whole line.
+ * Line terminators are the same of <code>BufferedReader.readLine()</code>: '\n', '\r' or '\r\n'.
+ */
+public class ByteLineSource implements LineSource
+{
+  protected final InputStream in;
+  protected final ByteCharSequence line;
+  protected byte[] buf;
+  protected ByteBuffer wrap;
+  protected int pos = 0;
+  protected int limit = 0;
+  protected boolean eof = false;
+  protected boolean skipLF = false;
+
+  public ByteLineSource(InputStream in, SingleByteCharset charset)
+  {
+    this(in, charset, 64 * 1024);
+  }
+
+  public ByteLineSource(InputStream in, SingleByteCharset charset, int bufferSize)
+  {
+    this.in = in;
+    this.line = new ByteCharSequence(charset);
+    this.buf = new byte[bufferSize];
+    this.wrap = ByteBuffer.wrap(buf);
+  }
+
+  @Override
+  public CharSequence readLine()
+     throws IOException
+  {
+    int scan = pos;
+
+    while(true)
+    {
+      if(skipLF && scan < limit)
+      {
+        // second half of a '\r\n' terminator
+        if(buf[scan] == '\n')
+          pos = ++scan;
+        skipLF = false;
+      }
+
+      int i = ByteScanner.indexOfLineEnd(wrap, scan, limit);
+      if(i >= 0)
+      {
+        line.reset(wrap, pos, i - pos);
+        pos = i + 1;
+        skipLF = (buf[i] == '\r');
+        return line;
+      }
+
+      if(eof)
+      {
+        if(pos == limit)
+          return null;
+
+        line.reset(wrap, pos, limit - pos);
+        pos = limit;
+        return line;
+      }
+
+      scan = limit - pos;
+      fill();
+    }
+  }
+
+  /**
+   * Move the unread bytes at the beginning of the buffer (growing it if full) and read more data.
+   * @throws IOException
+   */
+  protected void fill()
+     throws IOException
+  {
+    if(pos > 0)
+    {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+
+    if(limit == buf.length)
+    {
+      byte[] tmp = new byte[buf.length * 2];
+      System.arraycopy(buf, 0, tmp, 0, limit);
+      buf = tmp;
+      wrap = ByteBuffer.wrap(buf);
+    }
+
+    int n = in.read(buf, limit, buf.length - limit);
+    if(n < 0)
+      eof = true;
+    else
+      limit += n;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    in.close();
+  }
+}
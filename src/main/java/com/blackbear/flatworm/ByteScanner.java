@@ -0,0 +1,103 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte search kernels used to frame lines and split fields on raw bytes.
+ * <p>
+ * The bytes are read 8 at a time in a long and compared with all the bytes of the long in a few arithmetic
+ * operations (SWAR: SIMD within a register); the tail shorter than 8 bytes is scanned one byte at a time.
+ * The test for zero bytes is exact (no false positives from the borrow of the classic formula), so the result does
+ * not depend on the byte order of the buffer.
+ * </p>
+ */
+public final class ByteScanner
+{
+  private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+  private static final long ONES = 0x0101010101010101L;
+
+  private ByteScanner()
+  {
+  }
+
+  /**
+   * Find a byte.
+   * @param buf the buffer (the position is ignored, to must not exceed the limit)
+   * @param from first index to test
+   * @param to last index (excluded)
+   * @param b the byte
+   * @return index of the first occurrence or -1
+   */
+  public static int indexOf(ByteBuffer buf, int from, int to, byte b)
+  {
+    return indexOfEither(buf, from, to, b, b);
+  }
+
+  /**
+   * Find a line terminator ('\n' or '\r').
+   * @param buf the buffer (the position is ignored, to must not exceed the limit)
+   * @param from first index to test
+   * @param to last index (excluded)
+   * @return index of the first terminator or -1
+   */
+  public static int indexOfLineEnd(ByteBuffer buf, int from, int to)
+  {
+    return indexOfEither(buf, from, to, (byte) '\n', (byte) '\r');
+  }
+
+  /**
+   * Find the first of two bytes.
+   * @param buf the buffer (the position is ignored, to must not exceed the limit)
+   * @param from first index to test
+   * @param to last index (excluded)
+   * @param a first byte
+   * @param b second byte
+   * @return index of the first occurrence of a or b, or -1
+   */
+  public static int indexOfEither(ByteBuffer buf, int from, int to, byte a, byte b)
+  {
+    long pa = (a & 0xFFL) * ONES;
+    long pb = (b & 0xFFL) * ONES;
+    boolean little = buf.order() == ByteOrder.LITTLE_ENDIAN;
+
+    int i = from;
+    for(; i <= to - 8; i += 8)
+    {
+      long w = buf.getLong(i);
+      long m = zeros(w ^ pa) | zeros(w ^ pb);
+      if(m != 0)
+        return i + ((little ? Long.numberOfTrailingZeros(m) : Long.numberOfLeadingZeros(m)) >>> 3);
+    }
+
+    for(; i < to; i++)
+    {
+      byte c = buf.get(i);
+      if(c == a || c == b)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return a long with the high bit set in each zero byte of x (and only there)
+   */
+  static long zeros(long x)
+  {
+    long t = (x & LOW7) + LOW7;
+    return ~(t | x | LOW7);
+  }
+}
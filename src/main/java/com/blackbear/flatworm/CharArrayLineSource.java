@@ -0,0 +1,128 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Line source over a <code>Reader</code> that doesn't allocate a <code>String</code> for each line.
+ * <p>
+ * Characters are read in a growable <code>char[]</code>; each line is returned as a reusable
+ * <code>CharBuffer</code> window between a start and an end cursor of the buffer, so blank line skipping, record
+ * matching and multi-line records work without copies.
+ * Line terminators are the same of <code>BufferedReader.readLine()</code>: '\n', '\r' or '\r\n'.
+ * </p>
+ */
+public class CharArrayLineSource implements LineSource
+{
+  protected final Reader in;
+  protected char[] buf;
+  protected CharBuffer line;
+  protected int pos = 0;
+  protected int limit = 0;
+  protected boolean eof = false;
+  protected boolean skipLF = false;
+
+  public CharArrayLineSource(Reader in)
+  {
+    this(in, 16 * 1024);
+  }
+
+  public CharArrayLineSource(Reader in, int bufferSize)
+  {
+    this.in = in;
+    this.buf = new char[bufferSize];
+    this.line = CharBuffer.wrap(buf);
+  }
+
+  @Override
+  public CharSequence readLine()
+     throws IOException
+  {
+    int scan = pos;
+
+    while(true)
+    {
+      if(skipLF && scan < limit)
+      {
+        // second half of a '\r\n' terminator
+        if(buf[scan] == '\n')
+          pos = ++scan;
+        skipLF = false;
+      }
+
+      for(int i = scan; i < limit; i++)
+      {
+        char c = buf[i];
+        if(c == '\n' || c == '\r')
+        {
+          line.limit(i).position(pos);
+          pos = i + 1;
+          skipLF = (c == '\r');
+          return line;
+        }
+      }
+
+      if(eof)
+      {
+        if(pos == limit)
+          return null;
+
+        line.limit(limit).position(pos);
+        pos = limit;
+        return line;
+      }
+
+      scan = limit - pos;
+      fill();
+    }
+  }
+
+  /**
+   * Move the unread chars at the beginning of the buffer (growing it if full) and read more data.
+   * @throws IOException
+   */
+  protected void fill()
+     throws IOException
+  {
+    if(pos > 0)
+    {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+
+    if(limit == buf.length)
+    {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+      line = CharBuffer.wrap(buf);
+    }
+
+    int n = in.read(buf, limit, buf.length - limit);
+    if(n < 0)
+      eof = true;
+    else
+      limit += n;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    in.close();
+  }
+}
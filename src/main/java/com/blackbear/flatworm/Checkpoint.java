@@ -0,0 +1,181 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+
+/**
+ * Bookmark of the parsing of an input file, persisted in a small properties file.
+ * <p>
+ * Holds the byte offset just after the last completed record, the ordinal of that record and an identity of the
+ * input file (file key or creation time) used to detect rotation. The file is written to a temporary file and then
+ * moved over the old one, so a crash never leaves a half written checkpoint.
+ * </p>
+ */
+public class Checkpoint
+{
+  protected final File file;
+  protected long offset = 0;
+  protected long ordinal = 0;
+  protected String inputId = null;
+
+  /**
+   * @param file the checkpoint file
+   */
+  public Checkpoint(String file)
+  {
+    this.file = new File(file);
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Byte offset of the first line not yet processed.
+   * @return offset in bytes
+   */
+  public long getOffset()
+  {
+    return offset;
+  }
+
+  public void setOffset(long offset)
+  {
+    this.offset = offset;
+  }
+
+  /**
+   * Ordinal (1 based) of the last record processed; 0 if none.
+   * @return the ordinal
+   */
+  public long getOrdinal()
+  {
+    return ordinal;
+  }
+
+  public void setOrdinal(long ordinal)
+  {
+    this.ordinal = ordinal;
+  }
+
+  public String getInputId()
+  {
+    return inputId;
+  }
+
+  public void setInputId(String inputId)
+  {
+    this.inputId = inputId;
+  }
+
+  /**
+   * Restart from the beginning of the input.
+   */
+  public void reset()
+  {
+    offset = 0;
+    ordinal = 0;
+  }
+
+  /**
+   * Load the checkpoint file.
+   * @return false if the file doesn't exist (the checkpoint is reset)
+   * @throws IOException
+   */
+  public boolean load()
+     throws IOException
+  {
+    reset();
+    inputId = null;
+
+    if(!file.exists())
+      return false;
+
+    Properties p = new Properties();
+    try (InputStream in = new FileInputStream(file))
+    {
+      p.load(in);
+    }
+
+    try
+    {
+      offset = Long.parseLong(p.getProperty("offset", "0"));
+      ordinal = Long.parseLong(p.getProperty("ordinal", "0"));
+      inputId = p.getProperty("input");
+    }
+    catch(NumberFormatException ex)
+    {
+      throw new IOException("Invalid checkpoint file " + file, ex);
+    }
+
+    return true;
+  }
+
+  /**
+   * Save the checkpoint file.
+   * @throws IOException
+   */
+  public void save()
+     throws IOException
+  {
+    Properties p = new Properties();
+    p.setProperty("offset", Long.toString(offset));
+    p.setProperty("ordinal", Long.toString(ordinal));
+    if(inputId != null)
+      p.setProperty("input", inputId);
+
+    File tmp = new File(file.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp))
+    {
+      p.store(out, "flatworm checkpoint");
+    }
+
+    try
+    {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(AtomicMoveNotSupportedException ex)
+    {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Identity of an input file: the file key (i.e. device and inode) when supported, otherwise the creation time.
+   * A different identity means that the file has been replaced.
+   * @param input the input file
+   * @return the identity
+   * @throws IOException
+   */
+  public static String getInputId(Path input)
+     throws IOException
+  {
+    BasicFileAttributes attrs = Files.readAttributes(input, BasicFileAttributes.class);
+    Object key = attrs.fileKey();
+    return key != null ? key.toString() : attrs.creationTime().toString();
+  }
+}
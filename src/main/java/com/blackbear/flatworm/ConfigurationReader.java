@@ -222,6 +222,19 @@ public class ConfigurationReader
         }
         f.setEncoding(encoding);
 
+        // with single byte encodings the lines are parsed from raw bytes
+        f.setSingleByteCharset(SingleByteCharset.forName(encoding));
+
+        if(hasAttributeValueNamed(node, "adaptive-matching"))
+        {
+          f.setAdaptiveMatching(Boolean.parseBoolean(getAttributeValueNamed(node, "adaptive-matching")));
+        }
+
+        if(hasAttributeValueNamed(node, "generated-accessors"))
+        {
+          f.setGeneratedAccessors(Boolean.parseBoolean(getAttributeValueNamed(node, "generated-accessors")));
+        }
+
         List<Object> children = getChildNodes(node);
         for(int i = 0; i < children.size(); i++)
         {
@@ -234,6 +247,7 @@ public class ConfigurationReader
             f.addRecord((Record) children.get(i));
           }
         }
+        f.compileAndCheck();
         return f;
       }
 
@@ -17,12 +17,10 @@ import com.blackbear.flatworm.errors.FlatwormConversionException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.commonlib5.utils.StringOper;
 
 /**
  * The <code>ConversionHelper</code> was created to separate formatting responsibility into a separate class.
@@ -35,16 +33,16 @@ public class ConversionHelper
   private static final Log log = LogFactory.getLog(ConversionHelper.class);
 
   protected Map<String, Converter> converters;
-  protected Map<Converter, Method> converterMethodCache;
-  protected Map<Converter, Method> converterToStringMethodCache;
   protected Map<String, Object> converterObjectCache;
+  // converters bound to their instances, by name (see getFieldConverter())
+  protected Map<String, FieldConverter<Object>> fieldConverters;
 
   public ConversionHelper()
   {
     converters = new HashMap<String, Converter>();
-    converterMethodCache = new HashMap<Converter, Method>();
-    converterToStringMethodCache = new HashMap<Converter, Method>();
-    converterObjectCache = new HashMap<String, Object>();
+    // caches are filled lazily, possibly by several parser threads
+    converterObjectCache = new ConcurrentHashMap<String, Object>();
+    fieldConverters = new ConcurrentHashMap<String, FieldConverter<Object>>();
   }
 
   /**
@@ -61,23 +59,88 @@ public class ConversionHelper
   public Object convert(String type, String fieldChars, Map<String, ConversionOption> options, String beanRef)
      throws FlatwormConversionException
   {
-    Object value = null;
+    FieldConverter<Object> converter = getFieldConverter(type);
 
     try
     {
-      Object object = getConverterObject(type);
-      Method method = getConverterMethod(type);
-
       fieldChars = transformString(fieldChars, options, 0);
-      value = method.invoke(object, fieldChars, options);
+      if(converter instanceof MethodConverter)
+        return ((MethodConverter) converter).parseString(fieldChars, options);
+
+      return converter.parse(fieldChars, options);
     }
-    catch(IllegalAccessException | InvocationTargetException | IllegalArgumentException e)
+    catch(Exception e)
     {
       log.error("While running convert method for " + beanRef, e);
       throw new FlatwormConversionException("Converting field " + beanRef + " with value '" + fieldChars + "'");
     }
+  }
+
+  /**
+   * Converte il valore di un campo senza copiarlo in una stringa.
+   * The conversion options only move the window of the view; if the converter has a
+   * <code>(CharSequence, Map)</code> overload it receives the view, otherwise the String method is called.
+   * @param type The name of the converter from the xml configuration file
+   * @param field The value of the field as read from the input file (modified by the conversion options)
+   * @param options Map of ConversionOptions (if any) for this field
+   * @param beanRef "class.property", used for more descriptive exception messages, should something go wrong
+   *
+   * @throws FlatwormConversionException - if problems are encountered during the conversion process (wraps other
+   * exceptions)
+   * @return Java type corresponding to the field type, post conversion
+   */
+  public Object convertChars(String type, FieldView field, Map<String, ConversionOption> options, String beanRef)
+     throws FlatwormConversionException
+  {
+    return convertChars(getFieldConverter(type), field, options, beanRef);
+  }
 
-    return value;
+  /**
+   * Converte il valore di un campo con il converter risolto del RecordElement (see RecordElement.bind()).
+   * @param re the field
+   * @param field The value of the field as read from the input file (modified by the conversion options)
+   * @return Java type corresponding to the field type, post conversion
+   * @throws FlatwormConversionException
+   */
+  public Object convertChars(RecordElement re, FieldView field)
+     throws FlatwormConversionException
+  {
+    return convertChars(getFieldConverter(re), field, re.getOptionPipeline(), re.getConversionOptions(),
+       re.getBeanRef());
+  }
+
+  /**
+   * Converte il valore di un campo con il converter specificato.
+   * The options are read again on every call; convertChars(RecordElement, FieldView) uses the options already
+   * compiled by the field.
+   * @param converter the converter
+   * @param field The value of the field as read from the input file (modified by the conversion options)
+   * @param options Map of ConversionOptions (if any) for this field
+   * @param beanRef "class.property", used for more descriptive exception messages, should something go wrong
+   * @return Java type corresponding to the field type, post conversion
+   * @throws FlatwormConversionException
+   */
+  public Object convertChars(FieldConverter<?> converter, FieldView field, Map<String, ConversionOption> options,
+     String beanRef)
+     throws FlatwormConversionException
+  {
+    return convertChars(converter, field, OptionPipeline.compile(options), options, beanRef);
+  }
+
+  protected Object convertChars(FieldConverter<?> converter, FieldView field, OptionPipeline pipeline,
+     Map<String, ConversionOption> options, String beanRef)
+     throws FlatwormConversionException
+  {
+    try
+    {
+      pipeline.apply(field);
+      return converter.parse(field, options);
+    }
+    catch(Exception e)
+    {
+      log.error("While running convert method for " + beanRef, e);
+      throw new FlatwormConversionException("Converting field " + beanRef + " with value '" + field + "'");
+    }
   }
 
   /**
@@ -91,15 +154,46 @@ public class ConversionHelper
    */
   public String convert(String type, Object obj, Map<String, ConversionOption> options, String beanRef)
      throws FlatwormConversionException
+  {
+    return format(getFieldConverter(type), obj, options, beanRef);
+  }
+
+  /**
+   * Converte il valore specificato in stringa con il converter risolto del RecordElement (see RecordElement.bind()).
+   * @param re the field
+   * @param obj il valore da convertire in stringa
+   * @return la stringa corrispondente al valore specificato
+   * @throws FlatwormConversionException
+   */
+  public String format(RecordElement re, Object obj)
+     throws FlatwormConversionException
+  {
+    return format(getFieldConverter(re), obj, re.getConversionOptions(), re.getBeanRef());
+  }
+
+  /**
+   * Converte il valore specificato in stringa con il converter specificato.
+   * @param converter the converter
+   * @param obj il valore da convertire in stringa
+   * @param options Map of ConversionOptions (if any) for this field
+   * @param beanRef "class.property", used for more descriptive exception messages, should something go wrong
+   * @return la stringa corrispondente al valore specificato (null if a legacy converter returns null)
+   * @throws FlatwormConversionException
+   */
+  @SuppressWarnings("unchecked")
+  public String format(FieldConverter<?> converter, Object obj, Map<String, ConversionOption> options, String beanRef)
+     throws FlatwormConversionException
   {
     try
     {
-      Object converter = getConverterObject(type);
-      Method method = getToStringConverterMethod(type);
-      String result = (String) method.invoke(converter, obj, options);
-      return result;
+      if(converter instanceof MethodConverter)
+        return ((MethodConverter) converter).formatString(obj, options);
+
+      StringBuilder sb = new StringBuilder();
+      ((FieldConverter<Object>) converter).format(obj, sb, options);
+      return sb.toString();
     }
-    catch(IllegalArgumentException | IllegalAccessException | InvocationTargetException e)
+    catch(Exception e)
     {
       log.error("While running toString convert method for " + beanRef, e);
       throw new FlatwormConversionException("Converting field " + beanRef + " to string for value '" + obj + "'");
@@ -107,7 +201,9 @@ public class ConversionHelper
   }
 
   /**
-   * Handles the processing of the Conversion-Options from the flatworm XML file
+   * Handles the processing of the Conversion-Options from the flatworm XML file.
+   * The options are read again on every call; transformString(fieldChars, re, length) uses the options already
+   * compiled by the field.
    *
    * @param fieldChars The string to be transformed
    * @param options Collection of ConversionOption objects
@@ -121,38 +217,46 @@ public class ConversionHelper
     // Iterate over conversion-options, that way, the xml file
     // can drive the order of conversions, instead of having them
     // hard-coded like in 'removePadding' (old way)
-    Set<String> keys = options.keySet();
-    for(Iterator<String> it = keys.iterator(); it.hasNext();)
-    {
-      ConversionOption conv = options.get(it.next());
+    return OptionPipeline.compile(options).apply(fieldChars, length);
+  }
 
-      switch(StringOper.okStr(conv.getName()).toLowerCase())
-      {
-        case "justify":
-          fieldChars = Util.justify(fieldChars, conv.getValue(), options, length);
-          break;
-        case "strip-chars":
-          fieldChars = Util.strip(fieldChars, conv.getValue(), options);
-          break;
-        case "substring":
-          fieldChars = Util.substring(fieldChars, conv.getValue(), options);
-          break;
-        case "default-value":
-          fieldChars = Util.defaultValue(fieldChars, conv.getValue(), options);
-          break;
-      }
-    }
+  /**
+   * Same as transformString(fieldChars, options, length) with the options of a field already compiled.
+   *
+   * @param fieldChars The string to be transformed
+   * @param re the field
+   * @param length Used in justification to ensure proper formatting
+   *
+   * @return The transformed string
+   */
+  public String transformString(String fieldChars, RecordElement re, int length)
+  {
+    return re.getOptionPipeline().apply(fieldChars, length);
+  }
 
-    if(length > 0)
-    {
-      // Never request string to be zero length
-      if(fieldChars.length() > length) // too long, chop it off
-        fieldChars = fieldChars.substring(0, length);
-      else if(fieldChars.length() < length) // too short, add spaces
-        fieldChars = StringOper.GetFixedString(fieldChars, length);
-    }
+  /**
+   * Same as transformString(fieldChars, options, 0) but working on a view: justify and substring only move the
+   * window; strip-chars and default-value replace its content.
+   * The options are read again on every call; transformChars(field, re) uses the options already compiled by the
+   * field.
+   *
+   * @param field The field to be transformed
+   * @param options Collection of ConversionOption objects
+   */
+  public void transformChars(FieldView field, Map<String, ConversionOption> options)
+  {
+    OptionPipeline.compile(options).apply(field);
+  }
 
-    return fieldChars;
+  /**
+   * Same as transformChars(field, options) with the options of a field already compiled.
+   *
+   * @param field The field to be transformed
+   * @param re the field definition
+   */
+  public void transformChars(FieldView field, RecordElement re)
+  {
+    re.getOptionPipeline().apply(field);
   }
 
   /**
@@ -163,82 +267,127 @@ public class ConversionHelper
   public void addConverter(Converter converter)
   {
     converters.put(converter.getName(), converter);
+    fieldConverters.remove(converter.getName());
   }
 
-  public Converter getConverter(String name)
+  /**
+   * Register a typed converter instance.
+   *
+   * @param name the name used in the <code>type</code> of the record elements
+   * @param converter the converter
+   */
+  @SuppressWarnings("unchecked")
+  public void addConverter(String name, FieldConverter<?> converter)
   {
-    Converter result = null;
-    Converter convert = converters.get(name);
-    if(convert != null)
+    Converter c = new Converter();
+    c.setName(name);
+    c.setConverterClass(converter.getClass().getName());
+    converters.put(name, c);
+    fieldConverters.put(name, (FieldConverter<Object>) converter);
+  }
+
+  /**
+   * Bind all the registered converters (see getFieldConverter()). Called when the format is compiled, so the
+   * classes and methods are resolved before parsing; the converters that can't be bound are reported when used.
+   */
+  public void bindAll()
+  {
+    for(String name : converters.keySet())
     {
-      result = new Converter();
-      result.setConverterClass(convert.getConverterClass());
-      result.setMethod(convert.getMethod());
-      result.setName(convert.getName());
-      result.setReturnType(convert.getReturnType());
+      try
+      {
+        getFieldConverter(name);
+      }
+      catch(FlatwormConversionException ex)
+      {
+        log.warn("Converter " + name + " can't be bound: " + ex.getMessage());
+      }
     }
+  }
 
-    return result;
+  /**
+   * The converter of a field: the one bound to the RecordElement or, if it isn't bound to this helper, the one
+   * registered for its type.
+   * @param re the field
+   * @return the converter
+   * @throws FlatwormConversionException if the type is not registered or can't be bound
+   */
+  public FieldConverter<Object> getFieldConverter(RecordElement re)
+     throws FlatwormConversionException
+  {
+    FieldConverter<Object> converter = re.getFieldConverter(this);
+    return converter != null ? converter : getFieldConverter(re.getType());
   }
 
   /**
-   * @param type The name of the converter. Used for lookup
-   * @return Java reflection Object used to represent the conversion method
-   * @throws com.blackbear.flatworm.errors.FlatwormConversionException
+   * The converter registered with a name. Converters declared with a method are adapted with MethodConverter,
+   * converters declared with the class only must implement FieldConverter.
+   * @param type The name of the converter
+   * @return the converter, bound on first use
+   * @throws FlatwormConversionException if the type is not registered or can't be bound
    */
-  protected Method getConverterMethod(String type)
+  @SuppressWarnings("unchecked")
+  public FieldConverter<Object> getFieldConverter(String type)
      throws FlatwormConversionException
   {
-    Converter c = (Converter) converters.get(type);
-    if(converterMethodCache.get(c) != null)
-      return (Method) converterMethodCache.get(c);
+    FieldConverter<Object> fc = fieldConverters.get(type);
+    if(fc != null)
+      return fc;
 
-    try
-    {
-      Class<? extends Object> cl = Class.forName(c.getConverterClass());
-      Method meth = cl.getMethod(c.getMethod(), String.class, Map.class);
+    Object object = getConverterObject(type);
+    Converter c = converters.get(type);
 
-      converterMethodCache.put(c, meth);
-      return meth;
-    }
-    catch(NoSuchMethodException e)
+    if(c.getMethod() == null || c.getMethod().isEmpty())
     {
-      log.error("Finding method", e);
-      throw new FlatwormConversionException("Couldn't Find Method");
+      if(!(object instanceof FieldConverter))
+        throw new FlatwormConversionException("Converter " + type + " has no method and is not a FieldConverter");
+      fc = (FieldConverter<Object>) object;
     }
-    catch(ClassNotFoundException e)
+    else
     {
-      log.error("Finding class", e);
-      throw new FlatwormConversionException("Couldn't Find Class");
+      Class<?> cl = object.getClass();
+      try
+      {
+        fc = new MethodConverter(object, c.getMethod(), findMethod(cl, c.getMethod(), String.class),
+           findMethod(cl, c.getMethod(), CharSequence.class), findMethod(cl, c.getMethod(), Object.class));
+      }
+      catch(IllegalAccessException e)
+      {
+        log.error("No access to class", e);
+        throw new FlatwormConversionException("Couldn't access class");
+      }
     }
+
+    fieldConverters.put(type, fc);
+    return fc;
   }
 
-  protected Method getToStringConverterMethod(String type)
-     throws FlatwormConversionException
+  protected static Method findMethod(Class<?> cl, String name, Class<?> valueType)
   {
-    Converter c = (Converter) converters.get(type);
-    if(converterToStringMethodCache.get(c) != null)
-      return (Method) converterToStringMethodCache.get(c);
-
     try
     {
-      Class<? extends Object> cl = Class.forName(c.getConverterClass());
-      Method meth = cl.getMethod(c.getMethod(), Object.class, Map.class);
-
-      converterToStringMethodCache.put(c, meth);
-      return meth;
+      return cl.getMethod(name, valueType, Map.class);
     }
     catch(NoSuchMethodException e)
     {
-      log.error("Finding method", e);
-      throw new FlatwormConversionException("Couldn't Find Method 'String " + c.getMethod()
-         + "(Object, HashMap)'");
+      return null;
     }
-    catch(ClassNotFoundException e)
+  }
+
+  public Converter getConverter(String name)
+  {
+    Converter result = null;
+    Converter convert = converters.get(name);
+    if(convert != null)
     {
-      log.error("Finding class", e);
-      throw new FlatwormConversionException("Couldn't Find Class");
+      result = new Converter();
+      result.setConverterClass(convert.getConverterClass());
+      result.setMethod(convert.getMethod());
+      result.setName(convert.getName());
+      result.setReturnType(convert.getReturnType());
     }
+
+    return result;
   }
 
   /**
@@ -0,0 +1,310 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+/**
+ * Single pass tokenizer for delimited lines.
+ * <p>
+ * Token boundaries are written in a reusable int array: a token is a window over the line, so in the common case
+ * (no quotes, or a whole field between quotes) no string is created. Only tokens with quotes in the middle or escaped
+ * quotes are copied, unquoted, in a reusable buffer of the tokenizer.
+ * </p>
+ * <p>
+ * Quoting follows <code>Util.split()</code>: delimiters between quotes are part of the token and the quote chars are
+ * removed. Inside quotes a doubled quote is a literal quote (RFC 4180). The delimiter can be longer than one char.
+ * </p>
+ * <p>
+ * Lines read as raw bytes (<code>ByteCharSequence</code>) are scanned with ByteScanner, 8 bytes at a time.
+ * </p>
+ * <p>
+ * A tokenizer is not thread safe; it can be reused for any number of lines.
+ * </p>
+ */
+public class DelimitedTokenizer
+{
+  protected String delimiter;
+  protected char first;
+  protected char quote;
+  protected CharSequence source;
+  // start and end of each token
+  protected int[] bounds = new int[64];
+  protected boolean[] copied = new boolean[32];
+  protected int count;
+  // unquoted tokens
+  protected final StringBuilder buffer = new StringBuilder();
+  // bytes of the first delimiter char and of the quote in the charset of the last ByteCharSequence (-1 if none)
+  protected SingleByteCharset byteCharset;
+  protected int firstByte;
+  protected int quoteByte;
+
+  public DelimitedTokenizer()
+  {
+  }
+
+  public DelimitedTokenizer(String delimiter, char quote)
+  {
+    setDelimiter(delimiter, quote);
+  }
+
+  /**
+   * @param delimiter the delimiter (one or more chars)
+   * @param quote the quote char
+   */
+  public final void setDelimiter(String delimiter, char quote)
+  {
+    if(delimiter == null || delimiter.isEmpty())
+      throw new IllegalArgumentException("Empty delimiter.");
+
+    if(!delimiter.equals(this.delimiter) || quote != this.quote)
+      byteCharset = null;
+
+    this.delimiter = delimiter;
+    this.first = delimiter.charAt(0);
+    this.quote = quote;
+  }
+
+  public String getDelimiter()
+  {
+    return delimiter;
+  }
+
+  public char getQuote()
+  {
+    return quote;
+  }
+
+  /**
+   * Split a line.
+   * @param line the line
+   * @return number of tokens (at least one)
+   */
+  public int tokenize(CharSequence line)
+  {
+    return tokenize(line, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Split the first tokens of a line.
+   * @param line the line
+   * @param max maximum number of tokens to find
+   * @return number of tokens
+   */
+  public int tokenize(CharSequence line, int max)
+  {
+    source = line;
+    count = 0;
+    buffer.setLength(0);
+
+    int n = line.length();
+    int pos = 0;
+    ByteCharSequence bytes = line instanceof ByteCharSequence ? (ByteCharSequence) line : null;
+    if(bytes != null && bytes.getCharset() != byteCharset)
+    {
+      byteCharset = bytes.getCharset();
+      firstByte = byteCharset.encode(first);
+      quoteByte = byteCharset.encode(quote);
+    }
+
+    while(count < max)
+    {
+      int j = pos;
+      char c = 0;
+      if(bytes != null)
+      {
+        j = scan(bytes, j);
+        if(j < n)
+          c = line.charAt(j);
+      }
+      else
+      {
+        while(j < n && (c = line.charAt(j)) != quote && !(c == first && isDelimiter(line, j)))
+          j++;
+      }
+
+      if(j < n && c == quote)
+        j = quoted(line, pos, j);
+      else
+        add(pos, j, false);
+
+      if(j >= n)
+        break;
+
+      // j is at a delimiter: an empty token follows a delimiter at the end of line
+      pos = j + delimiter.length();
+    }
+
+    return count;
+  }
+
+  /**
+   * Find the next quote or delimiter in the bytes of the line.
+   * @return its index or the length of the line
+   */
+  protected int scan(ByteCharSequence line, int from)
+  {
+    int n = line.length();
+    if(firstByte < 0 && quoteByte < 0)
+      return n;
+
+    byte a = (byte) (firstByte < 0 ? quoteByte : firstByte);
+    byte b = (byte) (quoteByte < 0 ? firstByte : quoteByte);
+    int offset = line.getOffset();
+
+    for(int j = from; j < n; j++)
+    {
+      int k = ByteScanner.indexOfEither(line.getBuffer(), offset + j, offset + n, a, b);
+      if(k < 0)
+        return n;
+
+      j = k - offset;
+      if(line.charAt(j) == quote || isDelimiter(line, j))
+        return j;
+    }
+    return n;
+  }
+
+  /**
+   * Scan a token with quotes.
+   * @param line the line
+   * @param start start of the token
+   * @param q position of the first quote
+   * @return position of the delimiter that ends the token (or end of line)
+   */
+  protected int quoted(CharSequence line, int start, int q)
+  {
+    int n = line.length();
+
+    if(q == start)
+    {
+      // whole field between quotes: it is a window over the line
+      int k = q + 1;
+      while(k < n && line.charAt(k) != quote)
+        k++;
+
+      if(k < n && (k + 1 == n || isDelimiter(line, k + 1)))
+      {
+        add(q + 1, k, false);
+        return k + 1;
+      }
+    }
+
+    int from = buffer.length();
+    buffer.append(line, start, q);
+
+    boolean inQuote = false;
+    int i = q;
+    while(i < n)
+    {
+      char c = line.charAt(i);
+      if(c == quote)
+      {
+        if(inQuote && i + 1 < n && line.charAt(i + 1) == quote)
+        {
+          buffer.append(quote);
+          i += 2;
+        }
+        else
+        {
+          inQuote = !inQuote;
+          i++;
+        }
+        continue;
+      }
+
+      if(!inQuote && c == first && isDelimiter(line, i))
+        break;
+
+      buffer.append(c);
+      i++;
+    }
+
+    add(from, buffer.length(), true);
+    return i;
+  }
+
+  protected boolean isDelimiter(CharSequence line, int pos)
+  {
+    return delimiter.length() == 1 ? line.charAt(pos) == first : Util.regionMatches(line, pos, delimiter, 0,
+       delimiter.length());
+  }
+
+  protected void add(int start, int end, boolean inBuffer)
+  {
+    if(count == copied.length)
+    {
+      int[] b = new int[bounds.length * 2];
+      System.arraycopy(bounds, 0, b, 0, bounds.length);
+      bounds = b;
+      boolean[] c = new boolean[copied.length * 2];
+      System.arraycopy(copied, 0, c, 0, copied.length);
+      copied = c;
+    }
+
+    bounds[count * 2] = start;
+    bounds[count * 2 + 1] = end;
+    copied[count++] = inBuffer;
+  }
+
+  /**
+   * @return number of tokens of the last line
+   */
+  public int getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Set a view to a token.
+   * @param i index of the token
+   * @param view the view to reset
+   * @return the view
+   */
+  public FieldView field(int i, FieldView view)
+  {
+    return view.reset(copied[i] ? buffer : source, bounds[i * 2], bounds[i * 2 + 1]);
+  }
+
+  /**
+   * @param i index of the token
+   * @param s the string to compare
+   * @return true if the token is equal to s
+   */
+  public boolean tokenEquals(int i, String s)
+  {
+    int start = bounds[i * 2];
+    int len = bounds[i * 2 + 1] - start;
+    return len == s.length() && Util.regionMatches(copied[i] ? buffer : source, start, s, 0, len);
+  }
+
+  /**
+   * @param i index of the token
+   * @return the token as a string
+   */
+  public String getToken(int i)
+  {
+    CharSequence cs = copied[i] ? buffer : source;
+    return cs.subSequence(bounds[i * 2], bounds[i * 2 + 1]).toString();
+  }
+
+  /**
+   * @return all the tokens of the last line
+   */
+  public String[] toArray()
+  {
+    String[] tokens = new String[count];
+    for(int i = 0; i < count; i++)
+      tokens[i] = getToken(i);
+    return tokens;
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormConversionException;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Typed converter between the text of a field and its value.
+ * <p>
+ * A converter is declared in the XML configuration with the <code>class</code> attribute only (no
+ * <code>method</code>) or registered with <code>FileFormat.addConverter(String, FieldConverter)</code>. The
+ * converters declared with a <code>method</code> (see CoreConverters) are adapted by MethodConverter. Converters are
+ * bound to the RecordElements when the format is compiled, so parsing a field is a direct call.
+ * </p>
+ * <p>
+ * A converter is shared by all the parsers of the format: it must be thread safe.
+ * </p>
+ * @param <T> type of the values
+ */
+public interface FieldConverter<T>
+{
+  /**
+   * Convert the text of a field.
+   * @param value the field with its conversion options applied (a window valid only during the call)
+   * @param options the conversion options of the field
+   * @return the value
+   * @throws FlatwormConversionException if the text can't be converted
+   */
+  T parse(CharSequence value, Map<String, ConversionOption> options)
+     throws FlatwormConversionException;
+
+  /**
+   * Write the text of a value (the conversion options for the length are applied by the caller).
+   * @param value the value (can be null)
+   * @param out where the text is written
+   * @param options the conversion options of the field
+   * @throws IOException
+   * @throws FlatwormConversionException if the value can't be converted
+   */
+  void format(T value, Appendable out, Map<String, ConversionOption> options)
+     throws IOException, FlatwormConversionException;
+}
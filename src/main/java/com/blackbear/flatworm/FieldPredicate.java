@@ -0,0 +1,171 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.util.Collection;
+
+/**
+ * Condition on the text of a field, evaluated before the record is converted (see FileFormat.addFilter()).
+ * The value is the field with its conversion options applied (justify, pad-character, ...) and without leading and
+ * trailing blanks. A missing field (beyond the end of the line) never matches.
+ * <p>
+ * The factories compile the condition once: the tests do not allocate.
+ * </p>
+ */
+public interface FieldPredicate
+{
+  /**
+   * @param value the field text (a window valid only during the call)
+   * @return true if the record must be parsed
+   */
+  boolean test(CharSequence value);
+
+  default FieldPredicate negate()
+  {
+    return (value) -> !test(value);
+  }
+
+  /**
+   * @param value the expected text
+   * @return a predicate true if the field is equal to value
+   */
+  static FieldPredicate equalTo(String value)
+  {
+    return (cs) -> value.contentEquals(cs);
+  }
+
+  /**
+   * @param values the accepted texts
+   * @return a predicate true if the field is equal to one of the values
+   */
+  static FieldPredicate in(String... values)
+  {
+    if(values.length == 1)
+      return equalTo(values[0]);
+
+    return new ValueSet(values)::contains;
+  }
+
+  static FieldPredicate in(Collection<String> values)
+  {
+    return in(values.toArray(new String[values.size()]));
+  }
+
+  /**
+   * @param prefix the expected start of the field
+   * @return a predicate true if the field starts with prefix
+   */
+  static FieldPredicate startsWith(String prefix)
+  {
+    int n = prefix.length();
+    return (cs) ->
+    {
+      if(cs.length() < n)
+        return false;
+      for(int i = 0; i < n; i++)
+      {
+        if(cs.charAt(i) != prefix.charAt(i))
+          return false;
+      }
+      return true;
+    };
+  }
+
+  /**
+   * Range on the text, compared char by char as String.compareTo() (i.e. dates in yyyyMMdd format, fixed width codes).
+   * @param from lower bound (inclusive), null for no bound
+   * @param to upper bound (inclusive), null for no bound
+   * @return a predicate true if the field is in the range
+   */
+  static FieldPredicate between(String from, String to)
+  {
+    return (cs) -> (from == null || ValueSet.compare(cs, from) >= 0) && (to == null || ValueSet.compare(cs, to) <= 0);
+  }
+
+  /**
+   * Numeric range; a blank or not numeric field does not match.
+   * @param from lower bound (inclusive)
+   * @param to upper bound (inclusive)
+   * @return a predicate true if the field is an integer in the range
+   */
+  static FieldPredicate between(long from, long to)
+  {
+    return (cs) ->
+    {
+      if(cs.length() == 0)
+        return false;
+
+      try
+      {
+        long v = Util.parseLong(cs);
+        return v >= from && v <= to;
+      }
+      catch(NumberFormatException ex)
+      {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Open addressing table of strings looked up directly with the CharSequence of the field.
+   */
+  class ValueSet
+  {
+    protected final String[] table;
+    protected final int mask;
+
+    protected ValueSet(String[] values)
+    {
+      int size = Integer.highestOneBit(Math.max(2, values.length * 2 - 1)) << 1;
+      table = new String[size];
+      mask = size - 1;
+
+      for(String v : values)
+      {
+        int i = v.hashCode() & mask;
+        while(table[i] != null && !table[i].equals(v))
+          i = (i + 1) & mask;
+        table[i] = v;
+      }
+    }
+
+    public boolean contains(CharSequence cs)
+    {
+      // same hash of String.hashCode()
+      int h = 0;
+      for(int i = 0; i < cs.length(); i++)
+        h = 31 * h + cs.charAt(i);
+
+      for(int i = h & mask; table[i] != null; i = (i + 1) & mask)
+      {
+        if(table[i].contentEquals(cs))
+          return true;
+      }
+      return false;
+    }
+
+    protected static int compare(CharSequence cs, String s)
+    {
+      int n = Math.min(cs.length(), s.length());
+      for(int i = 0; i < n; i++)
+      {
+        int d = cs.charAt(i) - s.charAt(i);
+        if(d != 0)
+          return d;
+      }
+      return cs.length() - s.length();
+    }
+  }
+}
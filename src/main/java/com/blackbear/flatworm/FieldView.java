@@ -0,0 +1,162 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.nio.CharBuffer;
+
+/**
+ * A reusable <code>CharSequence</code> window over a field of an input line.
+ * <p>
+ * Fields are passed to the conversion options and to the converters as views, without copying the characters:
+ * trimming and substrings only move the window. A <code>String</code> is created only by toString(), i.e. when a
+ * converter has no <code>CharSequence</code> overload or the target property is a String.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> a view is reused for the next field, so converters must not keep a reference to it.
+ * </p>
+ */
+public class FieldView implements CharSequence
+{
+  protected CharSequence source = "";
+  protected int start;
+  protected int end;
+
+  public FieldView()
+  {
+  }
+
+  public FieldView(CharSequence source, int start, int end)
+  {
+    reset(source, start, end);
+  }
+
+  /**
+   * Move the window.
+   * @param source the underlying characters (usually the input line)
+   * @param start start index (inclusive)
+   * @param end end index (exclusive)
+   * @return this
+   */
+  public FieldView reset(CharSequence source, int start, int end)
+  {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    return this;
+  }
+
+  /**
+   * Move the window over a whole string.
+   * @param source the string
+   * @return this
+   */
+  public FieldView reset(String source)
+  {
+    return reset(source, 0, source.length());
+  }
+
+  /**
+   * Shrink the window removing the pad characters.
+   * @param padChars characters to remove
+   * @param trailing remove from the end
+   * @param leading remove from the beginning
+   * @return this
+   */
+  public FieldView trim(String padChars, boolean trailing, boolean leading)
+  {
+    if(trailing)
+    {
+      while(end > start && padChars.indexOf(source.charAt(end - 1)) != -1)
+        end--;
+    }
+
+    if(leading)
+    {
+      while(start < end && padChars.indexOf(source.charAt(start)) != -1)
+        start++;
+    }
+
+    return this;
+  }
+
+  /**
+   * Shrink the window, with the same semantic of <code>String.substring</code>.
+   * @param beginIndex begin index, relative to the current window
+   * @param endIndex end index, relative to the current window
+   * @return this
+   */
+  public FieldView narrow(int beginIndex, int endIndex)
+  {
+    if(beginIndex < 0 || endIndex > length() || beginIndex > endIndex)
+      throw new StringIndexOutOfBoundsException("begin " + beginIndex + ", end " + endIndex + ", length " + length());
+
+    end = start + endIndex;
+    start += beginIndex;
+    return this;
+  }
+
+  /**
+   * Test for an empty or whitespace only window (same as <code>StringUtils.isBlank</code>).
+   * @return true if blank
+   */
+  public boolean isBlank()
+  {
+    for(int i = start; i < end; i++)
+    {
+      if(!Character.isWhitespace(source.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int length()
+  {
+    return end - start;
+  }
+
+  @Override
+  public char charAt(int index)
+  {
+    if(index < 0 || index >= end - start)
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+
+    return source.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int from, int to)
+  {
+    return new FieldView(source, start, end).narrow(from, to);
+  }
+
+  @Override
+  public String toString()
+  {
+    if(source instanceof String)
+      return ((String) source).substring(start, end);
+
+    if(source instanceof CharBuffer && ((CharBuffer) source).hasArray())
+    {
+      CharBuffer cb = (CharBuffer) source;
+      return new String(cb.array(), cb.arrayOffset() + cb.position() + start, end - start);
+    }
+
+    // with single byte encodings only the field is decoded
+    if(source instanceof ByteCharSequence)
+      return ((ByteCharSequence) source).toString(start, end);
+
+    return source.subSequence(start, end).toString();
+  }
+}
@@ -0,0 +1,11 @@
+package com.blackbear.flatworm;
+
+public interface FileCallback
+{
+    /**
+     * Called when the parsing of a file is completed.
+     * @param file the input file
+     * @param error null if the file has been read to the end, otherwise the exception that stopped the parsing
+     */
+    void fileCompleted(String file, Exception error);
+}
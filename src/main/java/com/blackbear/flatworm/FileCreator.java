@@ -266,16 +266,13 @@ public class FileCreator implements Closeable
         if(lineElement instanceof RecordElement)
         {
           RecordElement recElement = (RecordElement) lineElement;
-          Map<String, ConversionOption> convOptions = recElement.getConversionOptions();
 
           int length = 0;
           String beanRef = "";
-          String type = "";
 
           try
           {
             beanRef = recElement.getBeanRef();
-            type = recElement.getType();
             length = recElement.getFieldLength();
           }
           catch(FlatwormUnsetFieldValueException ex)
@@ -310,7 +307,7 @@ public class FileCreator implements Closeable
 
               // Convert to String for output
               Object value = PropertyUtils.getProperty(bean, property);
-              val = convHelper.convert(type, value, convOptions, beanRef);
+              val = convHelper.format(recElement, value);
               PropertyUtils.setProperty(bean, property, value);
             }
 
@@ -318,8 +315,7 @@ public class FileCreator implements Closeable
             if(val == null)
               val = "";
 
-            val = convHelper.transformString(val,
-               recElement.getConversionOptions(), recElement.getFieldLength());
+            val = convHelper.transformString(val, recElement, recElement.getFieldLength());
 
             if(itRecElements.hasNext())
               bufOut.write(val + delimit);
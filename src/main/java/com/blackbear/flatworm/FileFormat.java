@@ -20,11 +20,15 @@ import com.blackbear.flatworm.errors.FlatwormInvalidRecordException;
 import com.blackbear.flatworm.errors.FlatwormUnsetFieldValueException;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -41,8 +45,17 @@ public class FileFormat
   protected List<Record> recordOrder;
   protected ConversionHelper convHelper = null;
   // JBL - Used when parsing fails, gives access to bad line
-  protected String lastLine = "";
+  // (kept in the parse context: the methods without an explicit context share this one, so like before they must
+  // not be called by several threads at once)
+  protected final ParseContext defaultContext;
   protected String encoding;
+  protected SingleByteCharset singleByteCharset;
+  // compiled record identification, rebuilt when the records change
+  protected volatile RecordMatcher matcher;
+  protected boolean adaptiveMatching = false;
+  protected boolean generatedAccessors = false;
+  // no more changes allowed (see freeze())
+  protected volatile boolean frozen = false;
 
   public FileFormat()
   {
@@ -51,12 +64,51 @@ public class FileFormat
 
     // JBL
     convHelper = new ConversionHelper();
+    defaultContext = new ParseContext(this);
   }
 
   // JBL - getter
+  /**
+   * @return the last line read by the methods without an explicit context; concurrent parsers must use
+   * ParseContext.getLastLine()
+   */
   public String getLastLine()
   {
-    return lastLine;
+    return defaultContext.getLastLine();
+  }
+
+  /**
+   * @return a new context, to parse with the methods that take an explicit context
+   */
+  public ParseContext newContext()
+  {
+    return new ParseContext(this);
+  }
+
+  /**
+   * Compile the format and forbid any further change: the mutators throw IllegalStateException. The parse state
+   * is kept in the ParseContext of each parser, so a frozen format can be shared by any number of threads
+   * without synchronization, each thread parsing with its own context (see newContext()). The Record and Line
+   * objects must not be changed directly after freeze().
+   */
+  public void freeze()
+  {
+    if(frozen)
+      return;
+
+    compile();
+    frozen = true;
+  }
+
+  public boolean isFrozen()
+  {
+    return frozen;
+  }
+
+  protected void checkNotFrozen()
+  {
+    if(frozen)
+      throw new IllegalStateException("The file format is frozen");
   }
 
   public Map<String, Record> getRecords()
@@ -66,14 +118,17 @@ public class FileFormat
 
   public void setRecords(Map<String, Record> records)
   {
+    checkNotFrozen();
     this.records.clear();
     this.records.putAll(records);
   }
 
   public void addRecord(Record r)
   {
+    checkNotFrozen();
     records.put(r.getName(), r);
     recordOrder.add(r);
+    matcher = null;
   }
 
   public Record getRecord(String name)
@@ -83,20 +138,54 @@ public class FileFormat
 
   public boolean removeRecord(String name)
   {
+    checkNotFrozen();
     return records.remove(name) != null;
   }
 
-  protected Record findMatchingRecord(String firstLine)
+  /**
+   * Compile the identification of the records (see RecordMatcher) and the parse plans of their lines (see
+   * LinePlan). Must be called again if a record is changed after the first parse. A frozen format is already
+   * compiled. The first parse compiles the format if needed, also when it is started by several threads at once.
+   */
+  public synchronized void compile()
   {
-    for(int i = 0; i < recordOrder.size(); i++)
+    if(frozen)
+      return;
+
+    convHelper.bindAll();
+    for(Record r : recordOrder)
+      r.compile(convHelper, generatedAccessors);
+
+    matcher = adaptiveMatching ? new AdaptiveRecordMatcher(recordOrder) : new RecordMatcher(recordOrder);
+  }
+
+  /**
+   * Compile the records and report the records that can match the same line (see RecordMatcher.warnOverlaps()).
+   * Called by ConfigurationReader at load time.
+   */
+  public void compileAndCheck()
+  {
+    compile();
+    matcher.warnOverlaps();
+  }
+
+  protected Record findMatchingRecord(CharSequence firstLine)
+  {
+    RecordMatcher m = matcher;
+    if(m == null)
     {
-      Record record = recordOrder.get(i);
-      if(record.matchesLine(firstLine, this))
+      synchronized(this)
       {
-        return record;
+        m = matcher;
+        if(m == null)
+        {
+          compile();
+          m = matcher;
+        }
       }
     }
-    return null;
+
+    return m.match(firstLine);
   }
 
   /**
@@ -107,7 +196,22 @@ public class FileFormat
    */
   public void addConverter(Converter converter)
   {
+    checkNotFrozen();
     convHelper.addConverter(converter);
+    matcher = null;
+  }
+
+  /**
+   * Register a typed converter, used by the record elements with <code>type</code> equal to name.
+   *
+   * @param name the name of the converter
+   * @param converter the converter
+   */
+  public void addConverter(String name, FieldConverter<?> converter)
+  {
+    checkNotFrozen();
+    convHelper.addConverter(name, converter);
+    matcher = null;
   }
 
   /**
@@ -135,35 +239,266 @@ public class FileFormat
   public MatchedRecord getNextRecord(BufferedReader in)
      throws FlatwormInvalidRecordException, FlatwormInputLineLengthException, FlatwormConversionException,
      FlatwormUnsetFieldValueException, FlatwormCreatorException
+  {
+    return getNextRecord(new ReaderLineSource(in));
+  }
+
+  /**
+   * When called with a <code>LineSource</code>, reads sufficient lines to parse a record, and returns the
+   * beans created.
+   *
+   * @param in The source to read from
+   * @return The created beans in a MatchedRecord object
+   * @throws FlatwormInvalidRecordException
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   * @throws FlatwormCreatorException
+   */
+  public MatchedRecord getNextRecord(LineSource in)
+     throws FlatwormInvalidRecordException, FlatwormInputLineLengthException, FlatwormConversionException,
+     FlatwormUnsetFieldValueException, FlatwormCreatorException
+  {
+    return getNextRecord(in, defaultContext);
+  }
+
+  /**
+   * Same as getNextRecord(LineSource) with the parse state kept in ctx.
+   *
+   * @param in The source to read from
+   * @param ctx the context of the parse (see newContext())
+   * @return The created beans in a MatchedRecord object
+   * @throws FlatwormInvalidRecordException
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   * @throws FlatwormCreatorException
+   */
+  public MatchedRecord getNextRecord(LineSource in, ParseContext ctx)
+     throws FlatwormInvalidRecordException, FlatwormInputLineLengthException, FlatwormConversionException,
+     FlatwormUnsetFieldValueException, FlatwormCreatorException
   {
     try
     {
-      String firstLine;
+      CharSequence firstLine;
+      Map<String, Object> beans;
+      Record rd;
+
+      // records rejected by the filters are skipped
+      do
+      {
+        do
+        {
+          firstLine = in.readLine();
+          ctx.setLastLine(firstLine);
+
+          if(firstLine == null)
+            return null;
+        }
+        while(firstLine.length() == 0);
+
+        rd = findMatchingRecord(firstLine);
+        if(rd == null)
+          throw new FlatwormInvalidRecordException("Unmatched line in input file");
+
+        beans = parseRecord(rd, firstLine, in, ctx);
+      }
+      while(beans == null);
+
+      return new MatchedRecord(rd.getName(), beans);
+    }
+    catch(IOException e)
+    {
+      log.error("Reading input", e);
+      return null;
+    }
+  }
+
+  /**
+   * Parse a record if it passes the filters of its type (see addFilter()). The fields tested by the filters are
+   * read from the lines of the record before any conversion or bean creation.
+   *
+   * @param rd the record matched by firstLine
+   * @param firstLine first line of the record
+   * @param in source of the continuation lines (they are consumed also when the record is rejected)
+   * @return the beans, or null if the record is rejected by the filters
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   * @throws FlatwormInvalidRecordException
+   * @throws FlatwormCreatorException
+   */
+  public Map<String, Object> parseRecord(Record rd, CharSequence firstLine, LineSource in)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
+     FlatwormInvalidRecordException, FlatwormCreatorException
+  {
+    return parseRecord(rd, firstLine, in, defaultContext);
+  }
+
+  /**
+   * Same as parseRecord(Record, CharSequence, LineSource) with the parse state kept in ctx.
+   *
+   * @param rd the record matched by firstLine
+   * @param firstLine first line of the record
+   * @param in source of the continuation lines
+   * @param ctx the context of the parse (see newContext())
+   * @return the beans, or null if the record is rejected by the filters
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   * @throws FlatwormInvalidRecordException
+   * @throws FlatwormCreatorException
+   */
+  public Map<String, Object> parseRecord(Record rd, CharSequence firstLine, LineSource in, ParseContext ctx)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
+     FlatwormInvalidRecordException, FlatwormCreatorException
+  {
+    RecordFilter filter = rd.getFilter();
+    if(filter == null)
+      return rd.parseRecord(firstLine, in, convHelper);
+
+    RecordView view = ctx.getFilterView();
+    try
+    {
+      view.load(rd, firstLine, in);
+    }
+    catch(IOException e)
+    {
+      log.error("Reading input", e);
+      throw new FlatwormConversionException("Couldn't read line");
+    }
+
+    if(!filter.accept(view))
+      return null;
+
+    return rd.parseRecord(view.getLine(0), view.getContinuationLines(), convHelper);
+  }
+
+  /**
+   * Parse only the records of a type whose field satisfies the predicate: the other records are skipped by
+   * getNextRecord() and by the parsers before converting their fields, creating their beans and calling the
+   * callbacks. Several conditions on the same record must be all true. The filters are part of the format, so they
+   * apply to all the parsers sharing it.
+   *
+   * @param recordName name of the record
+   * @param beanRef the field tested (i.e. "det.status"); fields after a segment can't be filtered
+   * @param predicate the condition (see the factories of FieldPredicate)
+   */
+  public void addFilter(String recordName, String beanRef, FieldPredicate predicate)
+  {
+    checkNotFrozen();
+    Record r = records.get(recordName);
+    if(r == null)
+      throw new IllegalArgumentException("Unknown record " + recordName);
+
+    RecordFilter filter = r.getFilter();
+    r.setFilter((filter == null ? new RecordFilter(r) : filter).and(beanRef, predicate));
+  }
+
+  /**
+   * Remove the filters of a record.
+   * @param recordName name of the record
+   */
+  public void removeFilters(String recordName)
+  {
+    checkNotFrozen();
+    Record r = records.get(recordName);
+    if(r != null)
+      r.setFilter(null);
+  }
+
+  /**
+   * @return true if some record has filters (the number of records parsed can be less than the records read)
+   */
+  public boolean hasFilters()
+  {
+    for(Record r : recordOrder)
+    {
+      if(r.getFilter() != null)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Move a view to the next record, without parsing it.
+   *
+   * @param in The source to read from
+   * @param view the view to move
+   * @return false at the end of input
+   * @throws FlatwormInvalidRecordException if the line does not match any record
+   */
+  public boolean getNextRecordView(LineSource in, RecordView view)
+     throws FlatwormInvalidRecordException
+  {
+    return getNextRecordView(in, view, defaultContext);
+  }
+
+  /**
+   * Same as getNextRecordView(LineSource, RecordView) with the parse state kept in ctx.
+   *
+   * @param in The source to read from
+   * @param view the view to move
+   * @param ctx the context of the parse (see newContext())
+   * @return false at the end of input
+   * @throws FlatwormInvalidRecordException if the line does not match any record
+   */
+  public boolean getNextRecordView(LineSource in, RecordView view, ParseContext ctx)
+     throws FlatwormInvalidRecordException
+  {
+    try
+    {
+      CharSequence firstLine;
 
       do
       {
         firstLine = in.readLine();
-        lastLine = firstLine;
+        ctx.setLastLine(firstLine);
 
         if(firstLine == null)
-          return null;
+          return false;
       }
-      while(firstLine.isEmpty());
+      while(firstLine.length() == 0);
 
-      Record rd;
-      rd = findMatchingRecord(firstLine);
+      Record rd = findMatchingRecord(firstLine);
       if(rd == null)
         throw new FlatwormInvalidRecordException("Unmatched line in input file");
 
-      Map<String, Object> beans = rd.parseRecord(firstLine, in, convHelper);
-      return new MatchedRecord(rd.getName(), beans);
+      view.load(rd, firstLine, in);
+      return true;
     }
     catch(IOException e)
     {
-      return null;
+      log.error("Reading input", e);
+      return false;
     }
   }
 
+  /**
+   * Lazy stream of the records read from <code>in</code>. Records are parsed only when consumed by the stream, so
+   * short-circuiting operations stop reading as soon as possible. The reader is not closed by the stream.
+   *
+   * @param in The stream to read from
+   * @return stream of records; parse errors are thrown as FlatwormUncheckedException
+   * @see RecordSpliterator
+   */
+  public Stream<MatchedRecord> stream(Reader in)
+  {
+    return stream(new CharArrayLineSource(in));
+  }
+
+  /**
+   * Lazy stream of the records read from <code>in</code>.
+   *
+   * @param in The source to read from
+   * @return stream of records; parse errors are thrown as FlatwormUncheckedException
+   * @see RecordSpliterator
+   */
+  public Stream<MatchedRecord> stream(LineSource in)
+  {
+    return StreamSupport.stream(new RecordSpliterator(this, in), false);
+  }
+
   public String getEncoding()
   {
     return encoding;
@@ -171,6 +506,73 @@ public class FileFormat
 
   public void setEncoding(String encoding)
   {
+    checkNotFrozen();
     this.encoding = encoding;
   }
+
+  /**
+   * Decoding table used to parse lines directly from raw bytes.
+   * @return the table or null if the encoding is not a single byte encoding
+   */
+  public SingleByteCharset getSingleByteCharset()
+  {
+    return singleByteCharset;
+  }
+
+  public void setSingleByteCharset(SingleByteCharset singleByteCharset)
+  {
+    checkNotFrozen();
+    this.singleByteCharset = singleByteCharset;
+  }
+
+  /**
+   * Restrict the parsing of a record to the fields needed by the caller: the other fields are not converted and
+   * not set in the beans, and delimited lines are split only up to the last needed field. The projection is part
+   * of the format, so it applies to all the parsers sharing it: it must be set before freeze().
+   * @param recordName name of the record
+   * @param beanRefs the beanRefs of the needed fields (i.e. "det.amount"), null for all
+   */
+  public void setProjection(String recordName, Collection<String> beanRefs)
+  {
+    checkNotFrozen();
+    Record r = records.get(recordName);
+    if(r == null)
+      throw new IllegalArgumentException("Unknown record " + recordName);
+
+    r.setProjection(beanRefs);
+    matcher = null;
+  }
+
+  public boolean isAdaptiveMatching()
+  {
+    return adaptiveMatching;
+  }
+
+  /**
+   * Enable the matching of the records by frequency (see AdaptiveRecordMatcher).
+   * @param adaptiveMatching true to check the most frequent records first
+   */
+  public void setAdaptiveMatching(boolean adaptiveMatching)
+  {
+    checkNotFrozen();
+    this.adaptiveMatching = adaptiveMatching;
+    matcher = null;
+  }
+
+  public boolean isGeneratedAccessors()
+  {
+    return generatedAccessors;
+  }
+
+  /**
+   * Create the beans and call converters and setters through generated classes instead of reflection (see
+   * Accessors). Where the accessors cannot be generated the reflective calls are used.
+   * @param generatedAccessors true to generate the accessors when the format is compiled
+   */
+  public void setGeneratedAccessors(boolean generatedAccessors)
+  {
+    checkNotFrozen();
+    this.generatedAccessors = generatedAccessors;
+    matcher = null;
+  }
 }
@@ -0,0 +1,377 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parse many files concurrently with one shared <code>FileFormat</code>.
+ * <p>
+ * Every file is read by its own <code>FileParser</code> (compressed files included, see ingestZip() to parse the
+ * entries of an archive in parallel); the files are parsed on virtual threads when the JDK supports them (Java 21
+ * and later), otherwise on a pool of platform threads. In both cases at most maxConcurrency files are parsed at the
+ * same time.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> the callbacks are shared by all the files and are called concurrently, so they must be thread safe.
+ * </p>
+ */
+public class FileIngestor
+{
+  private static final Log log = LogFactory.getLog(FileIngestor.class);
+
+  protected final FileFormat ff;
+  protected Map<String, RecordCallback> recordCallbacks = new HashMap<String, RecordCallback>();
+  protected ExceptionCallback exceptionCallback;
+  protected FileCallback fileCallback;
+  protected int maxConcurrency = Runtime.getRuntime().availableProcessors();
+  protected boolean virtualThreads = true;
+  protected boolean memoryMapped = false;
+
+  public FileIngestor(FileFormat ff)
+  {
+    this.ff = ff;
+  }
+
+  public FileFormat getFileFormat()
+  {
+    return ff;
+  }
+
+  /**
+   * Add a callback for a record type; see FileParser.addRecordCallback().
+   * @param recordName the record name as specified in the configuration file
+   * @param callback the callback (must be thread safe)
+   */
+  public void addRecordCallback(String recordName, RecordCallback callback)
+  {
+    recordCallbacks.put(recordName, callback);
+  }
+
+  /**
+   * Set the callback for parsing exceptions; see FileParser.setExceptionCallback().
+   * @param callback the callback (must be thread safe)
+   */
+  public void setExceptionCallback(ExceptionCallback callback)
+  {
+    exceptionCallback = callback;
+  }
+
+  /**
+   * Set the callback called at the end of each file.
+   * When not set, errors that stop the parsing of a file are logged.
+   * @param callback the callback (must be thread safe)
+   */
+  public void setFileCallback(FileCallback callback)
+  {
+    fileCallback = callback;
+  }
+
+  public int getMaxConcurrency()
+  {
+    return maxConcurrency;
+  }
+
+  /**
+   * Set the maximum number of files parsed at the same time.
+   * Default is the number of available processors.
+   * @param maxConcurrency number of files
+   */
+  public void setMaxConcurrency(int maxConcurrency)
+  {
+    if(maxConcurrency < 1)
+      throw new IllegalArgumentException("Concurrency must be at least 1.");
+
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  public boolean isVirtualThreads()
+  {
+    return virtualThreads;
+  }
+
+  /**
+   * Use virtual threads when available (default true).
+   * @param virtualThreads false to always use a pool of platform threads
+   */
+  public void setVirtualThreads(boolean virtualThreads)
+  {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public boolean isMemoryMapped()
+  {
+    return memoryMapped;
+  }
+
+  /**
+   * Read the files through a memory mapping; see FileParser.setMemoryMapped().
+   * @param memoryMapped true to use memory mapped input
+   */
+  public void setMemoryMapped(boolean memoryMapped)
+  {
+    this.memoryMapped = memoryMapped;
+  }
+
+  /**
+   * Parse all the files of a directory (subdirectories are ignored).
+   * @param directory the directory
+   * @throws IOException if the directory can not be listed
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void ingest(File directory)
+     throws IOException, InterruptedException
+  {
+    ingest(directory, File::isFile);
+  }
+
+  /**
+   * Parse the files of a directory accepted by the filter, in name order.
+   * @param directory the directory
+   * @param filter the filter
+   * @throws IOException if the directory can not be listed
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void ingest(File directory, FileFilter filter)
+     throws IOException, InterruptedException
+  {
+    File[] files = directory.listFiles(filter);
+    if(files == null)
+      throw new IOException("Can not list directory " + directory);
+
+    Arrays.sort(files);
+    List<String> paths = new ArrayList<String>(files.length);
+    for(File f : files)
+    {
+      if(f.isFile())
+        paths.add(f.getPath());
+    }
+
+    ingest(paths);
+  }
+
+  /**
+   * Parse the files and wait for their completion.
+   * @param files full path of the input files
+   * @throws InterruptedException if the calling thread is interrupted while waiting: the files not yet started are
+   * skipped and the running ones are interrupted
+   */
+  public void ingest(Collection<String> files)
+     throws InterruptedException
+  {
+    runAll(files, (file) -> parseFile(newParser(file), file));
+  }
+
+  /**
+   * Parse the entries of a zip archive in parallel and wait for their completion.
+   * Each entry is decompressed on a background thread; the name passed to the file callback is
+   * <code>zipFile!entryName</code>.
+   * @param zipFile full path of the archive
+   * @throws IOException if the archive can not be opened
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void ingestZip(String zipFile)
+     throws IOException, InterruptedException
+  {
+    try (ZipFile zip = new ZipFile(zipFile))
+    {
+      List<ZipEntry> entries = new ArrayList<ZipEntry>();
+      for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();)
+      {
+        ZipEntry entry = e.nextElement();
+        if(!entry.isDirectory())
+          entries.add(entry);
+      }
+
+      runAll(entries, (entry) ->
+      {
+        String name = zipFile + "!" + entry.getName();
+
+        try
+        {
+          InputStream in = new ReadAheadInputStream(zip.getInputStream(entry));
+          parseFile(newParser(name, in), name);
+        }
+        catch(IOException ex)
+        {
+          completed(name, ex);
+        }
+      });
+    }
+  }
+
+  /**
+   * Run a task for each item with at most maxConcurrency tasks at the same time, and wait for their completion.
+   * @param items the items
+   * @param task the task
+   * @throws InterruptedException if the calling thread is interrupted while waiting: the items not yet started are
+   * skipped and the running tasks are interrupted
+   */
+  protected <T> void runAll(Collection<T> items, Consumer<T> task)
+     throws InterruptedException
+  {
+    ExecutorService executor = newExecutor();
+    Semaphore permits = new Semaphore(maxConcurrency);
+    boolean completed = false;
+
+    try
+    {
+      for(T item : items)
+      {
+        permits.acquire();
+
+        try
+        {
+          executor.execute(() ->
+          {
+            try
+            {
+              task.accept(item);
+            }
+            finally
+            {
+              permits.release();
+            }
+          });
+        }
+        catch(RejectedExecutionException ex)
+        {
+          permits.release();
+          throw ex;
+        }
+      }
+
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      completed = true;
+    }
+    finally
+    {
+      if(!completed)
+        executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Parse a single file and call the file callback.
+   * @param parser the parser of the file
+   * @param file name of the input file
+   */
+  protected void parseFile(FileParser parser, String file)
+  {
+    Exception error = null;
+
+    try
+    {
+      parser.open();
+
+      try
+      {
+        parser.read();
+      }
+      finally
+      {
+        parser.close();
+      }
+    }
+    catch(Exception ex)
+    {
+      error = ex;
+    }
+
+    completed(file, error);
+  }
+
+  protected void completed(String file, Exception error)
+  {
+    if(fileCallback != null)
+      fileCallback.fileCompleted(file, error);
+    else if(error != null)
+      log.error("Parsing " + file, error);
+  }
+
+  protected FileParser newParser(String file)
+  {
+    FileParser parser = new FileParser(ff, file);
+    parser.setMemoryMapped(memoryMapped);
+    return setup(parser);
+  }
+
+  protected FileParser newParser(String name, InputStream in)
+  {
+    return setup(new FileParser(ff, name, in));
+  }
+
+  protected FileParser setup(FileParser parser)
+  {
+    parser.recordCallbacks.putAll(recordCallbacks);
+    parser.setExceptionCallback(exceptionCallback);
+    return parser;
+  }
+
+  /**
+   * Create the executor: virtual threads if enabled and supported, otherwise a fixed pool of maxConcurrency threads.
+   * @return the executor
+   */
+  protected ExecutorService newExecutor()
+  {
+    if(virtualThreads)
+    {
+      try
+      {
+        // Java 21: looked up by reflection to keep compatibility with older runtimes
+        Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) m.invoke(null);
+      }
+      catch(NoSuchMethodException ex)
+      {
+        // not supported by this runtime
+      }
+      catch(Exception ex)
+      {
+        log.debug("Virtual threads not available", ex);
+      }
+    }
+
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(maxConcurrency, (r) ->
+    {
+      Thread t = new Thread(r, "flatworm-ingest-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+}
@@ -20,15 +20,22 @@ import com.blackbear.flatworm.errors.FlatwormInvalidRecordException;
 import com.blackbear.flatworm.errors.FlatwormParserException;
 import com.blackbear.flatworm.errors.FlatwormUnsetFieldValueException;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -53,12 +60,26 @@ public class FileParser
   // This map provides access to callback objects, rather than methods as with the older callbacks Map.
   // It is intended to eventually replace that mechanism
   protected Map<String, RecordCallback> recordCallbacks = new HashMap<String, RecordCallback>();
+  // records read through a RecordView, without creating the beans
+  protected Map<String, RecordViewCallback> viewCallbacks = new HashMap<String, RecordViewCallback>();
   // Provide a single callback object for exceptions. This is not stored in the callbacks map because exception handling
   // is inherently different than record processing and the callback signature is therefore different
   protected ExceptionCallback exceptionCallback;
   protected String file;
   protected FileFormat ff;
   protected BufferedReader bufIn = null;
+  protected LineSource lineIn = null;
+  protected boolean memoryMapped = false;
+  protected InputStream inputStream = null;
+  protected Checkpoint checkpoint = null;
+  protected int checkpointRecords;
+  protected long checkpointMillis;
+  protected long lastCheckpointSave;
+  protected int sinceCheckpointSave;
+  protected long recordOrdinal = 0;
+  protected volatile FollowingLineSource following = null;
+  protected long followMinPoll = FollowingLineSource.DEFAULT_MIN_POLL;
+  protected long followMaxPoll = FollowingLineSource.DEFAULT_MAX_POLL;
 
   /**
    * Constructor for FileParser<br>
@@ -90,6 +111,34 @@ public class FileParser
     }
   }
 
+  /**
+   * Constructor for FileParser with a configuration already loaded. The same FileFormat can be shared by several
+   * parsers, also running concurrently.<br>
+   *
+   * @param ff the file format
+   * @param file full path to input file
+   */
+  public FileParser(FileFormat ff, String file)
+  {
+    this.ff = ff;
+    this.file = file;
+  }
+
+  /**
+   * Constructor for FileParser that reads an already opened stream (i.e. an entry of an archive).
+   * The stream is closed by close().<br>
+   *
+   * @param ff the file format
+   * @param name name of the input, used only for messages
+   * @param in the input data
+   */
+  public FileParser(FileFormat ff, String name, InputStream in)
+  {
+    this.ff = ff;
+    this.file = name;
+    this.inputStream = in;
+  }
+
   /**
    * Let's the parser know which object and method to call when a record has been successfully parsed and needs
    * handling<br>
@@ -120,6 +169,18 @@ public class FileParser
     recordCallbacks.put(recordName, callback);
   }
 
+  /**
+   * Read the records of a type through a <code>RecordView</code>: the fields are decoded on demand by the callback
+   * and no bean is created. The records of the other types are parsed and passed to their callbacks as usual.
+   * Used by read() only.
+   * @param recordName the record type
+   * @param callback the callback
+   */
+  public void addRecordViewCallback(String recordName, RecordViewCallback callback)
+  {
+    viewCallbacks.put(recordName, callback);
+  }
+
   /**
    * Let's the parser know which object and method to call when an exception occurs during record processing.<br>
    *
@@ -152,7 +213,94 @@ public class FileParser
   }
 
   /**
-   * Open the buffered reader for the input file<br>
+   * Read the input file through a memory mapping instead of a <code>BufferedReader</code>.
+   * Must be called before open().
+   * @param memoryMapped true to use memory mapped input
+   * @see MappedLineSource
+   */
+  public void setMemoryMapped(boolean memoryMapped)
+  {
+    this.memoryMapped = memoryMapped;
+  }
+
+  public boolean isMemoryMapped()
+  {
+    return memoryMapped;
+  }
+
+  /**
+   * Enable checkpointing: read() records the byte offset and the ordinal of the last record whose callback
+   * completed and saves them in checkpointFile every everyRecords records or everyMillis milliseconds, and at the
+   * end of input. If the checkpoint file exists, open() resumes from the saved offset, so the records processed
+   * after the last save are delivered again.
+   * <p>
+   * The same mechanism supports incremental runs on append-only files: each run processes only the bytes added
+   * since the previous one. If the input file has been truncated or replaced (different file key) the parsing
+   * restarts from the beginning. Appended data should contain only complete lines.
+   * </p>
+   * Must be called before open(); the input must be an uncompressed file with an ASCII compatible encoding (it is
+   * read through a memory mapping).
+   *
+   * @param checkpointFile full path of the checkpoint file
+   * @param everyRecords save after this number of records (0 for no limit)
+   * @param everyMillis save after this time (0 for no limit)
+   * @throws IOException - If the checkpoint file can not be read or the input can not be checkpointed.
+   * @see Checkpoint
+   */
+  public void setCheckpoint(String checkpointFile, int everyRecords, long everyMillis)
+     throws IOException
+  {
+    if(inputStream != null || isCompressed(file))
+      throw new IOException("Checkpoints require an uncompressed file: " + file);
+
+    try
+    {
+      MappedLineSource.checkCharset(MappedLineSource.forName(ff.getEncoding()));
+    }
+    catch(IllegalArgumentException ex)
+    {
+      throw new IOException(ex.getMessage(), ex);
+    }
+
+    Checkpoint cp = new Checkpoint(checkpointFile);
+    String inputId = Checkpoint.getInputId(Paths.get(file));
+
+    if(cp.load())
+    {
+      if(!inputId.equals(cp.getInputId()))
+      {
+        log.warn("Input file " + file + " has been replaced: restarting from the beginning");
+        cp.reset();
+      }
+      else if(cp.getOffset() > new File(file).length())
+      {
+        log.warn("Input file " + file + " has been truncated: restarting from the beginning");
+        cp.reset();
+      }
+    }
+
+    cp.setInputId(inputId);
+    checkpoint = cp;
+    checkpointRecords = everyRecords;
+    checkpointMillis = everyMillis;
+  }
+
+  public Checkpoint getCheckpoint()
+  {
+    return checkpoint;
+  }
+
+  /**
+   * Ordinal of the last record processed by read() (including the records before the checkpoint).
+   * @return the ordinal (1 based)
+   */
+  public long getRecordOrdinal()
+  {
+    return recordOrdinal;
+  }
+
+  /**
+   * Open the buffered reader for the input file (.gz and .zip files are decompressed on the fly)<br>
    *
    * @throws FileNotFoundException - If the file you supplied does not happen to exist.
    * @throws UnsupportedEncodingException
@@ -160,10 +308,69 @@ public class FileParser
   public void open()
      throws FileNotFoundException, UnsupportedEncodingException
   {
-    InputStream in = new FileInputStream(file);
     String encoding = ff.getEncoding();
-    bufIn = new BufferedReader(new InputStreamReader(in, encoding));
 
+    if(checkpoint != null)
+    {
+      lineIn = new MappedLineSource(new RandomAccessFile(file, "r").getChannel(), checkpoint.getOffset(),
+         new File(file).length(), MappedLineSource.forName(encoding), true);
+      recordOrdinal = checkpoint.getOrdinal();
+      lastCheckpointSave = System.currentTimeMillis();
+      sinceCheckpointSave = 0;
+      return;
+    }
+
+    if(memoryMapped && inputStream == null && !isCompressed(file))
+    {
+      lineIn = new MappedLineSource(file, encoding);
+      return;
+    }
+
+    InputStream in = openInputStream();
+
+    if(ff.getSingleByteCharset() != null)
+    {
+      lineIn = new ByteLineSource(in, ff.getSingleByteCharset());
+      return;
+    }
+
+    lineIn = new CharArrayLineSource(new InputStreamReader(in, encoding));
+  }
+
+  /**
+   * Open the raw input: files ending with .gz or .zip are decompressed on a background thread (all the entries of
+   * a zip archive are read in sequence).
+   * @return the input stream
+   * @throws FileNotFoundException
+   * @see ReadAheadInputStream
+   */
+  protected InputStream openInputStream()
+     throws FileNotFoundException
+  {
+    if(inputStream != null)
+      return inputStream;
+
+    InputStream in = new FileInputStream(file);
+    String lower = file.toLowerCase();
+
+    if(lower.endsWith(".gz"))
+      return new ReadAheadInputStream(in, (raw) -> new GZIPInputStream(raw, ReadAheadInputStream.DEFAULT_BLOCK_SIZE));
+
+    if(lower.endsWith(".zip"))
+      return new ReadAheadInputStream(in, ZipEntriesInputStream::new);
+
+    return in;
+  }
+
+  /**
+   * Test for compressed input files.
+   * @param file file name
+   * @return true if the file is read through a decompressor
+   */
+  public static boolean isCompressed(String file)
+  {
+    String lower = file.toLowerCase();
+    return lower.endsWith(".gz") || lower.endsWith(".zip");
   }
 
   /**
@@ -174,9 +381,9 @@ public class FileParser
   public void close()
      throws IOException
   {
-    if(bufIn != null)
+    if(lineIn != null)
     {
-      bufIn.close();
+      lineIn.close();
     }
   }
 
@@ -188,38 +395,45 @@ public class FileParser
    */
   public void read()
   {
+    if(!viewCallbacks.isEmpty())
+    {
+      readViews();
+      return;
+    }
 
+    ParseContext ctx = ff.newContext();
     MatchedRecord results = null;
     boolean exception = false;
     do
     {
       exception = true;
+      results = null;
 
       // Attempt to parse the next line
       try
       {
-        results = ff.getNextRecord(bufIn);
+        results = ff.getNextRecord(lineIn, ctx);
         exception = false;
       }
       catch(FlatwormInvalidRecordException ex)
       {
-        doExceptionCallback(ex, "FlatwormInvalidRecordException", ff.getLastLine());
+        doExceptionCallback(ex, "FlatwormInvalidRecordException", ctx.getLastLine());
       }
       catch(FlatwormInputLineLengthException ex)
       {
-        doExceptionCallback(ex, "FlatwormInputLineLengthException", ff.getLastLine());
+        doExceptionCallback(ex, "FlatwormInputLineLengthException", ctx.getLastLine());
       }
       catch(FlatwormUnsetFieldValueException ex)
       {
-        doExceptionCallback(ex, "FlatwormUnsetFieldValueException", ff.getLastLine());
+        doExceptionCallback(ex, "FlatwormUnsetFieldValueException", ctx.getLastLine());
       }
       catch(FlatwormConversionException ex)
       {
-        doExceptionCallback(ex, "FlatwormConversionException", ff.getLastLine());
+        doExceptionCallback(ex, "FlatwormConversionException", ctx.getLastLine());
       }
       catch(Exception ex)
       {
-        doExceptionCallback(ex, ex.getMessage(), ff.getLastLine());
+        doExceptionCallback(ex, ex.getMessage(), ctx.getLastLine());
       }
 
       if(null != results)
@@ -227,8 +441,272 @@ public class FileParser
         String recordName = results.getRecordName();
         doCallback(recordName, results);
       }
+
+      if(null != results || exception)
+        recordCompleted();
     }
     while((null != results) || exception);
+
+    if(checkpoint != null)
+      saveCheckpoint();
+  }
+
+  /**
+   * Same as read() with view callbacks: each record is loaded in a RecordView and parsed only if its type has no
+   * view callback.
+   */
+  protected void readViews()
+  {
+    ParseContext ctx = ff.newContext();
+    RecordView view = new RecordView(ff);
+
+    while(true)
+    {
+      MatchedRecord results = null;
+      RecordViewCallback viewCallback = null;
+
+      try
+      {
+        if(!ff.getNextRecordView(lineIn, view, ctx))
+          break;
+
+        // records rejected by the filters are skipped before the callbacks
+        RecordFilter filter = view.getRecord().getFilter();
+        if(filter != null && !filter.accept(view))
+          continue;
+
+        viewCallback = viewCallbacks.get(view.getRecordName());
+        if(viewCallback == null)
+        {
+          Map<String, Object> beans = view.getRecord().parseRecord(view.getLine(0), view.getContinuationLines(),
+             ff.getConvertionHelper());
+          results = new MatchedRecord(view.getRecordName(), beans);
+        }
+      }
+      catch(Exception ex)
+      {
+        doExceptionCallback(ex, getExceptionName(ex), ctx.getLastLine());
+      }
+
+      if(viewCallback != null)
+        viewCallback.processRecord(view);
+      else if(results != null)
+        doCallback(results.getRecordName(), results);
+
+      recordCompleted();
+    }
+
+    if(checkpoint != null)
+      saveCheckpoint();
+  }
+
+  /**
+   * Called by read() after the callback of each record.
+   */
+  protected void recordCompleted()
+  {
+    recordOrdinal++;
+
+    if(checkpoint == null)
+      return;
+
+    sinceCheckpointSave++;
+    if((checkpointRecords > 0 && sinceCheckpointSave >= checkpointRecords)
+       || (checkpointMillis > 0 && System.currentTimeMillis() - lastCheckpointSave >= checkpointMillis))
+      saveCheckpoint();
+  }
+
+  protected void saveCheckpoint()
+  {
+    checkpoint.setOffset(((MappedLineSource) lineIn).getPosition());
+    checkpoint.setOrdinal(recordOrdinal);
+    sinceCheckpointSave = 0;
+    lastCheckpointSave = System.currentTimeMillis();
+
+    try
+    {
+      checkpoint.save();
+    }
+    catch(IOException ex)
+    {
+      log.error("Saving checkpoint " + checkpoint.getFile(), ex);
+    }
+  }
+
+  /**
+   * Lazy stream of the records of the input file, as an alternative to the callbacks used by read().
+   * The file is opened if needed and closed when the stream is closed.<br>
+   *
+   * @return stream of records; parse errors are thrown as FlatwormUncheckedException
+   * @throws FileNotFoundException - If the file you supplied does not happen to exist.
+   * @throws UnsupportedEncodingException
+   */
+  public Stream<MatchedRecord> stream()
+     throws FileNotFoundException, UnsupportedEncodingException
+  {
+    if(lineIn == null)
+      open();
+
+    return ff.stream(lineIn).onClose(() ->
+    {
+      try
+      {
+        close();
+      }
+      catch(IOException ex)
+      {
+        throw new UncheckedIOException(ex);
+      }
+    });
+  }
+
+  /**
+   * Read the entire input file in parallel on the common <code>ForkJoinPool</code>.
+   * Doesn't require open(): the file is accessed through its own channel.
+   *
+   * @param ordered if true the handlers are called in file order from the calling thread, otherwise they are
+   * called directly from the worker threads and must be thread safe
+   * @throws IOException - If the file can not be read or the encoding is not ASCII compatible.
+   * @see ParallelFileReader
+   */
+  public void readParallel(boolean ordered)
+     throws IOException
+  {
+    readParallel(ForkJoinPool.commonPool(), ordered);
+  }
+
+  /**
+   * Read the entire input file in parallel on the specified <code>ForkJoinPool</code>.
+   * Doesn't require open(): the file is accessed through its own channel.
+   *
+   * @param pool the pool used to parse the file
+   * @param ordered if true the handlers are called in file order from the calling thread, otherwise they are
+   * called directly from the worker threads and must be thread safe
+   * @throws IOException - If the file can not be read or the encoding is not ASCII compatible.
+   * @see ParallelFileReader
+   */
+  public void readParallel(ForkJoinPool pool, boolean ordered)
+     throws IOException
+  {
+    if(inputStream != null || isCompressed(file))
+      throw new IOException("Parallel read requires an uncompressed file: " + file);
+
+    try
+    {
+      new ParallelFileReader(this, ff, file).read(pool, ordered);
+    }
+    catch(IllegalArgumentException ex)
+    {
+      throw new IOException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Read the entire input file with a pipeline: a reader thread frames the records, numWorkers threads parse them
+   * and the handlers are called in file order from the calling thread. I/O, conversion and callbacks overlap, so
+   * slow handlers (i.e. database work) no longer stall reading and parsing.<br>
+   * Be sure to call the open() method before this.
+   *
+   * @param numWorkers number of parser threads
+   * @see PipelinedFileReader
+   */
+  public void readPipelined(int numWorkers)
+  {
+    readPipelined(numWorkers, PipelinedFileReader.DEFAULT_RING_SIZE);
+  }
+
+  /**
+   * Read the entire input file with a pipeline of reader, parsers and dispatcher.<br>
+   * Be sure to call the open() method before this.
+   *
+   * @param numWorkers number of parser threads
+   * @param ringSize number of records in flight between the stages
+   * @see PipelinedFileReader
+   */
+  public void readPipelined(int numWorkers, int ringSize)
+  {
+    new PipelinedFileReader(this, ff, lineIn, numWorkers, ringSize).read();
+  }
+
+  /**
+   * Follow the input file as it grows (like <code>tail -F</code>): the records are parsed and passed to the
+   * handlers as soon as they are completely written. Truncation and rotation of the file are detected (see
+   * FollowingLineSource). This method returns only after stopFollowing() is called from another thread (or from a
+   * callback). Doesn't require open().
+   *
+   * @param fromEnd if true only the records appended after the call are read, otherwise the whole file
+   * @throws IOException - If the file can not be opened or the encoding is not ASCII compatible.
+   */
+  public void follow(boolean fromEnd)
+     throws IOException
+  {
+    if(checkpoint != null || inputStream != null || isCompressed(file))
+      throw new IOException("Follow mode requires an uncompressed file without checkpoint: " + file);
+
+    FollowingLineSource src;
+    try
+    {
+      src = new FollowingLineSource(file, MappedLineSource.forName(ff.getEncoding()), fromEnd);
+    }
+    catch(IllegalArgumentException ex)
+    {
+      throw new IOException(ex.getMessage(), ex);
+    }
+
+    src.setPollInterval(followMinPoll, followMaxPoll);
+    lineIn = src;
+    following = src;
+
+    try
+    {
+      read();
+    }
+    finally
+    {
+      following = null;
+      close();
+    }
+  }
+
+  /**
+   * Stop a running follow(): it returns after the record being parsed.
+   */
+  public void stopFollowing()
+  {
+    FollowingLineSource src = following;
+    if(src != null)
+      src.stop();
+  }
+
+  /**
+   * Set the polling interval used by follow(): when the file doesn't grow the interval doubles from minMillis
+   * up to maxMillis.
+   * @param minMillis minimum interval
+   * @param maxMillis maximum interval
+   */
+  public void setFollowPollInterval(long minMillis, long maxMillis)
+  {
+    if(minMillis <= 0 || maxMillis < minMillis)
+      throw new IllegalArgumentException("Invalid poll interval " + minMillis + "-" + maxMillis);
+
+    followMinPoll = minMillis;
+    followMaxPoll = maxMillis;
+  }
+
+  /**
+   * Name of the exception as passed to the old style exception handler by read().
+   * @param ex the exception
+   * @return name of the exception
+   */
+  protected static String getExceptionName(Exception ex)
+  {
+    if(ex instanceof FlatwormInvalidRecordException
+       || ex instanceof FlatwormInputLineLengthException
+       || ex instanceof FlatwormUnsetFieldValueException
+       || ex instanceof FlatwormConversionException)
+      return ex.getClass().getSimpleName();
+
+    return ex.getMessage();
   }
 
   /**
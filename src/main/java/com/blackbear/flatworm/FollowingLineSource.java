@@ -0,0 +1,293 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Line source that follows a growing file (like <code>tail -F</code>).
+ * <p>
+ * At end of file readLine() waits for new data polling the file with an adaptive interval: it starts from
+ * minPollMillis and doubles up to maxPollMillis while the file doesn't grow. Only complete lines are returned: a
+ * partial last line is kept until its terminator is written.
+ * </p>
+ * <p>
+ * If the file is truncated it is read again from the beginning; if it is replaced (rotation: the path refers to a
+ * different file) the old file is read to the end, a partial last line is returned as is and the new file is read
+ * from the beginning. readLine() returns null only after stop().
+ * </p>
+ * <p>
+ * <b>NOTE:</b> lines are framed on '\n', so the encoding must be ASCII compatible (see MappedLineSource).
+ * </p>
+ */
+public class FollowingLineSource implements LineSource
+{
+  private static final Log log = LogFactory.getLog(FollowingLineSource.class);
+
+  public static final long DEFAULT_MIN_POLL = 10;
+  public static final long DEFAULT_MAX_POLL = 1000;
+
+  protected final Path path;
+  protected final CharsetDecoder decoder;
+  protected final ByteCharSequence bytesLine;
+  protected FileChannel channel;
+  protected String fileId;
+  protected byte[] buf = new byte[64 * 1024];
+  protected ByteBuffer wrap = ByteBuffer.wrap(buf);
+  protected int pos = 0;
+  protected int scan = 0;
+  protected int limit = 0;
+  protected boolean skipFirstLine = false;
+  protected CharBuffer chars = CharBuffer.allocate(256);
+  protected long minPollMillis = DEFAULT_MIN_POLL;
+  protected long maxPollMillis = DEFAULT_MAX_POLL;
+  protected volatile boolean stopped = false;
+  protected volatile Thread waiter;
+
+  /**
+   * @param file full path to input file
+   * @param charset encoding of the file
+   * @param fromEnd if true only the lines appended after the opening are read
+   * @throws IOException
+   */
+  public FollowingLineSource(String file, Charset charset, boolean fromEnd)
+     throws IOException
+  {
+    MappedLineSource.checkCharset(charset);
+    this.path = Paths.get(file);
+    this.decoder = charset.newDecoder()
+       .onMalformedInput(CodingErrorAction.REPLACE)
+       .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    SingleByteCharset sbc = SingleByteCharset.forCharset(charset);
+    this.bytesLine = sbc == null ? null : new ByteCharSequence(sbc);
+
+    openFile();
+
+    if(fromEnd)
+    {
+      long size = channel.size();
+      if(size > 0)
+      {
+        // start from the next complete line
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        skipFirstLine = last.get(0) != '\n';
+      }
+      channel.position(size);
+    }
+  }
+
+  public void setPollInterval(long minPollMillis, long maxPollMillis)
+  {
+    if(minPollMillis <= 0 || maxPollMillis < minPollMillis)
+      throw new IllegalArgumentException("Invalid poll interval " + minPollMillis + "-" + maxPollMillis);
+
+    this.minPollMillis = minPollMillis;
+    this.maxPollMillis = maxPollMillis;
+  }
+
+  /**
+   * Stop following: the pending (or next) readLine() returns null. Can be called from any thread.
+   */
+  public void stop()
+  {
+    stopped = true;
+    Thread t = waiter;
+    if(t != null)
+      LockSupport.unpark(t);
+  }
+
+  public boolean isStopped()
+  {
+    return stopped;
+  }
+
+  protected void openFile()
+     throws IOException
+  {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    fileId = Checkpoint.getInputId(path);
+  }
+
+  @Override
+  public CharSequence readLine()
+     throws IOException
+  {
+    long poll = minPollMillis;
+
+    while(true)
+    {
+      int nl = ByteScanner.indexOf(wrap, scan, limit, (byte) '\n');
+
+      if(nl >= 0)
+      {
+        int from = pos;
+        int stop = nl > from && buf[nl - 1] == '\r' ? nl - 1 : nl;
+        pos = scan = nl + 1;
+
+        if(skipFirstLine)
+        {
+          skipFirstLine = false;
+          continue;
+        }
+
+        if(bytesLine != null)
+          return bytesLine.reset(wrap, from, stop - from);
+
+        decode(from, stop);
+        return chars;
+      }
+
+      scan = limit;
+
+      if(stopped)
+        return null;
+
+      if(fill() > 0 || checkFile())
+      {
+        poll = minPollMillis;
+        continue;
+      }
+
+      waiter = Thread.currentThread();
+      if(!stopped)
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(poll));
+      waiter = null;
+
+      if(Thread.interrupted())
+        stopped = true;
+
+      poll = Math.min(poll * 2, maxPollMillis);
+    }
+  }
+
+  /**
+   * Read more data from the file, compacting (or growing) the buffer.
+   * @return number of bytes read
+   * @throws IOException
+   */
+  protected int fill()
+     throws IOException
+  {
+    if(pos > 0)
+    {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      scan -= pos;
+      pos = 0;
+    }
+
+    if(limit == buf.length)
+      grow();
+
+    wrap.limit(buf.length).position(limit);
+    int n = channel.read(wrap);
+    if(n <= 0)
+      return 0;
+
+    limit += n;
+    return n;
+  }
+
+  protected void grow()
+  {
+    buf = Arrays.copyOf(buf, buf.length * 2);
+    wrap = ByteBuffer.wrap(buf);
+  }
+
+  /**
+   * Check for truncation or rotation of the file.
+   * @return true if the file has been reopened
+   * @throws IOException
+   */
+  protected boolean checkFile()
+     throws IOException
+  {
+    if(channel.size() < channel.position())
+    {
+      log.warn("File " + path + " has been truncated: reading from the beginning");
+      channel.position(0);
+      pos = scan = limit = 0;
+      skipFirstLine = false;
+      return true;
+    }
+
+    String id;
+    try
+    {
+      id = Checkpoint.getInputId(path);
+    }
+    catch(NoSuchFileException ex)
+    {
+      // during rotation: wait for the new file
+      return false;
+    }
+
+    if(id.equals(fileId))
+      return false;
+
+    log.info("File " + path + " has been rotated: reading the new file");
+
+    // the old file is completely read: a partial last line is returned as is
+    if(limit > pos)
+    {
+      if(limit == buf.length)
+        grow();
+      buf[limit++] = '\n';
+    }
+
+    channel.close();
+    openFile();
+    return true;
+  }
+
+  protected void decode(int from, int to)
+  {
+    int maxChars = (int) Math.ceil((to - from) * (double) decoder.maxCharsPerByte());
+    if(chars.capacity() < maxChars)
+      chars = CharBuffer.allocate(Math.max(maxChars, chars.capacity() * 2));
+
+    wrap.limit(to).position(from);
+    chars.clear();
+    decoder.reset();
+    decoder.decode(wrap, chars, true);
+    decoder.flush(chars);
+    chars.flip();
+    // the byte scans read up to the end of the buffered data
+    wrap.limit(buf.length);
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    channel.close();
+  }
+}
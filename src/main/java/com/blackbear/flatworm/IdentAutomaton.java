@@ -0,0 +1,246 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Position keyed automaton matching the 'F' identifiers of all the records in a single pass.
+ * <p>
+ * Every state is a line position and the set of identifiers still compatible with the chars read so far; a
+ * transition reads the char at that position. A state is final as soon as the first (in declaration order) of its
+ * identifiers is complete, so each char of the line is read at most once and only up to the last position that can
+ * change the result. Identifiers can have any start and length.
+ * </p>
+ * <p>
+ * The number of states can grow with many overlapping identifiers: the build gives up after MAX_STATES
+ * (see <code>build()</code>).
+ * </p>
+ */
+public class IdentAutomaton
+{
+  public static final int MAX_STATES = 4096;
+  protected static final int NONE = RecordMatcher.NONE;
+  protected static final int OPEN = -1;
+
+  // start position of the first state
+  protected final int first;
+  // per state: position of the char to read, result if final (or OPEN), result if the line ends here
+  protected final int[] statePos;
+  protected final int[] stateResult;
+  protected final int[] stateEnd;
+  // per state: sorted chars with a transition, target states, target for any other char
+  protected final char[][] stateChars;
+  protected final int[][] stateNext;
+  protected final int[] stateOther;
+
+  protected IdentAutomaton(int first, List<int[]> states, List<char[]> chars, List<int[]> next)
+  {
+    int n = states.size();
+    this.first = first;
+    this.statePos = new int[n];
+    this.stateResult = new int[n];
+    this.stateEnd = new int[n];
+    this.stateOther = new int[n];
+    this.stateChars = chars.toArray(new char[n][]);
+    this.stateNext = next.toArray(new int[n][]);
+    for(int i = 0; i < n; i++)
+    {
+      int[] s = states.get(i);
+      statePos[i] = s[0];
+      stateResult[i] = s[1];
+      stateEnd[i] = s[2];
+      stateOther[i] = s[3];
+    }
+  }
+
+  /**
+   * Build the automaton.
+   * @param records the records in declaration order ('F' records are used, the others ignored)
+   * @return the automaton or null if there are no identifiers or the states exceed MAX_STATES
+   */
+  public static IdentAutomaton build(Record[] records)
+  {
+    // identifiers sorted by record index, so the lowest alive bit is the first record
+    List<String> keys = new ArrayList<String>();
+    List<int[]> idents = new ArrayList<int[]>();
+    for(int i = 0; i < records.length; i++)
+    {
+      Record r = records[i];
+      if(r.getIdentTypeFlag() != 'F' || r.getFieldIdentStart() < 0)
+        continue;
+
+      int length = r.getFieldIdentLength();
+      for(String s : r.getFieldIdentMatchStrings())
+      {
+        if(s.length() >= length)
+        {
+          keys.add(s.substring(0, length));
+          idents.add(new int[]
+          {
+            i, r.getFieldIdentStart(), r.getFieldIdentStart() + length
+          });
+        }
+      }
+    }
+
+    if(idents.isEmpty())
+      return null;
+
+    int n = idents.size();
+    int[] identRecord = new int[n];
+    int[] identStart = new int[n];
+    int[] identEnd = new int[n];
+    int first = Integer.MAX_VALUE;
+    for(int i = 0; i < n; i++)
+    {
+      int[] id = idents.get(i);
+      identRecord[i] = id[0];
+      identStart[i] = id[1];
+      identEnd[i] = id[2];
+      first = Math.min(first, id[1]);
+    }
+
+    List<int[]> states = new ArrayList<int[]>();
+    List<char[]> stateChars = new ArrayList<char[]>();
+    List<int[]> stateNext = new ArrayList<int[]>();
+    List<BitSet> stateAlive = new ArrayList<BitSet>();
+    Map<List<Object>, Integer> index = new HashMap<List<Object>, Integer>();
+
+    BitSet all = new BitSet(n);
+    all.set(0, n);
+    addState(first, all, states, stateAlive, index);
+
+    for(int s = 0; s < states.size(); s++)
+    {
+      if(states.size() > MAX_STATES)
+        return null;
+
+      int pos = states.get(s)[0];
+      BitSet alive = stateAlive.get(s);
+      int m = alive.nextSetBit(0);
+
+      if(m < 0 || identEnd[m] <= pos)
+      {
+        // final state: no identifier left or the first one is complete
+        states.get(s)[1] = m < 0 ? NONE : identRecord[m];
+        stateChars.add(null);
+        stateNext.add(null);
+        continue;
+      }
+
+      // line ending here: only the complete identifiers match
+      int end = NONE;
+      for(int i = m; i >= 0; i = alive.nextSetBit(i + 1))
+      {
+        if(identEnd[i] <= pos)
+        {
+          end = identRecord[i];
+          break;
+        }
+      }
+      states.get(s)[2] = end;
+
+      // identifiers reading the char at pos
+      BitSet covering = new BitSet(n);
+      TreeSet<Character> chars = new TreeSet<Character>();
+      for(int i = m; i >= 0; i = alive.nextSetBit(i + 1))
+      {
+        if(identStart[i] <= pos && pos < identEnd[i])
+        {
+          covering.set(i);
+          chars.add(keys.get(i).charAt(pos - identStart[i]));
+        }
+      }
+
+      BitSet other = (BitSet) alive.clone();
+      other.andNot(covering);
+      states.get(s)[3] = addState(pos + 1, other, states, stateAlive, index);
+
+      char[] c = new char[chars.size()];
+      int[] next = new int[c.length];
+      int k = 0;
+      for(char ch : chars)
+      {
+        BitSet target = (BitSet) other.clone();
+        for(int i = covering.nextSetBit(0); i >= 0; i = covering.nextSetBit(i + 1))
+        {
+          if(keys.get(i).charAt(pos - identStart[i]) == ch)
+            target.set(i);
+        }
+        c[k] = ch;
+        next[k++] = addState(pos + 1, target, states, stateAlive, index);
+      }
+      stateChars.add(c);
+      stateNext.add(next);
+    }
+
+    return new IdentAutomaton(first, states, stateChars, stateNext);
+  }
+
+  protected static int addState(int pos, BitSet alive, List<int[]> states, List<BitSet> stateAlive,
+     Map<List<Object>, Integer> index)
+  {
+    List<Object> key = Arrays.asList(pos, alive);
+    Integer s = index.get(key);
+    if(s == null)
+    {
+      s = states.size();
+      index.put(key, s);
+      states.add(new int[]
+      {
+        pos, OPEN, NONE, 0
+      });
+      stateAlive.add(alive);
+    }
+    return s;
+  }
+
+  public int getStateCount()
+  {
+    return statePos.length;
+  }
+
+  /**
+   * Find the first record whose identifier matches the line.
+   * @param line the line
+   * @return index of the record or NONE
+   */
+  public int match(CharSequence line)
+  {
+    int len = line.length();
+    if(len < first)
+      return NONE;
+
+    int s = 0;
+    while(true)
+    {
+      if(stateResult[s] != OPEN)
+        return stateResult[s];
+
+      int pos = statePos[s];
+      if(pos == len)
+        return stateEnd[s];
+
+      int i = Arrays.binarySearch(stateChars[s], line.charAt(pos));
+      s = i >= 0 ? stateNext[s][i] : stateOther[s];
+    }
+  }
+}
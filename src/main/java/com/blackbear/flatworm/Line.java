@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -35,13 +36,53 @@ public class Line
   protected List<LineElement> elements = new ArrayList<LineElement>();
   protected String delimit = null;
   protected char chrQuote = '\0';
-  protected ConversionHelper convHelper;
-  protected Map<String, Object> beans;
   protected BeanMappingStrategy mappingStrategy = new PropertyUtilsMappingStrategy();
+  // compiled parse plan (fixed width lines only)
+  protected volatile LinePlan plan;
+  // fields to map (null: all)
+  protected volatile Projection projection;
 
-  // properties used for processing delimited input
-  protected String[] delimitedFields;
-  protected int currentField = 0;
+  /**
+   * The fields of the line needed by the caller (see setProjection()).
+   */
+  protected static class Projection
+  {
+    // by index in elements: true if the field must be converted and set
+    protected final boolean[] mapped;
+    // number of tokens to split in delimited lines
+    protected final int tokens;
+
+    protected Projection(boolean[] mapped, int tokens)
+    {
+      this.mapped = mapped;
+      this.tokens = tokens;
+    }
+  }
+
+  /**
+   * State used while processing delimited input.
+   * It is kept out of the Line, so the same Line can parse input from several threads.
+   */
+  protected static class DelimitedInput
+  {
+    protected final DelimitedTokenizer fields;
+    protected final int fieldCount;
+    protected final Map<String, Object> beans;
+    protected final ConversionHelper convHelper;
+    protected final FieldView field = new FieldView();
+    protected int currentField = 0;
+
+    public DelimitedInput(DelimitedTokenizer fields, Map<String, Object> beans, ConversionHelper convHelper)
+    {
+      this.fields = fields;
+      this.fieldCount = fields.getCount();
+      this.beans = beans;
+      this.convHelper = convHelper;
+    }
+  }
+
+  // the tokens are views over the line: a tokenizer per thread is reused for all the lines
+  protected static final ThreadLocal<DelimitedTokenizer> tokenizers = ThreadLocal.withInitial(DelimitedTokenizer::new);
 
   public Line()
   {
@@ -64,6 +105,7 @@ public class Line
   public void setDelimeter(String delimit)
   {
     this.delimit = delimit;
+    plan = null;
   }
 
   public String getDelimeter()
@@ -80,11 +122,92 @@ public class Line
   {
     this.elements.clear();
     this.elements.addAll(recordElements);
+    plan = null;
+    projection = null;
   }
 
   public void addElement(LineElement re)
   {
     elements.add(re);
+    plan = null;
+    projection = null;
+  }
+
+  public LinePlan getPlan()
+  {
+    return plan;
+  }
+
+  /**
+   * Restrict the parsing to some fields: the other fields are not converted and not set in the beans, and delimited
+   * lines are split only up to the last needed field (the missing columns after it are not reported).
+   * Fields inside segments are always mapped.
+   * @param beanRefs the beanRefs of the needed fields, null for all
+   */
+  public void setProjection(Set<String> beanRefs)
+  {
+    plan = null;
+
+    if(beanRefs == null)
+    {
+      projection = null;
+      return;
+    }
+
+    boolean[] mapped = new boolean[elements.size()];
+    int tokens = 0;
+    boolean segments = false;
+    for(int i = 0; i < mapped.length; i++)
+    {
+      LineElement le = elements.get(i);
+      if(le instanceof RecordElement)
+      {
+        mapped[i] = le.getBeanRef() != null && beanRefs.contains(le.getBeanRef());
+        if(mapped[i])
+          tokens = i + 1;
+      }
+      else
+        segments = true;
+    }
+
+    projection = new Projection(mapped, segments ? Integer.MAX_VALUE : tokens);
+  }
+
+  /**
+   * @param i index of an element
+   * @return true if the element must be mapped (see setProjection())
+   */
+  public boolean isMapped(int i)
+  {
+    Projection p = projection;
+    return p == null || p.mapped[i];
+  }
+
+  /**
+   * Compile the parse plan of the line (see LinePlan); delimited lines are always parsed by parseInput().
+   * @param beanNames names of the beans of the record
+   * @param beanClasses classes of the beans
+   * @param convHelper the conversion helper of the format
+   * @param generate true to use generated accessors (see Accessors)
+   */
+  public void compile(String[] beanNames, Class<?>[] beanClasses, ConversionHelper convHelper, boolean generate)
+  {
+    bind(elements, convHelper);
+    plan = isDelimeted() ? null : LinePlan.compile(this, beanNames, beanClasses, convHelper, generate);
+  }
+
+  /**
+   * Resolve the converters of the fields, also inside the segments (see RecordElement.bind()).
+   */
+  protected static void bind(List<LineElement> elements, ConversionHelper convHelper)
+  {
+    for(LineElement le : elements)
+    {
+      if(le instanceof RecordElement)
+        ((RecordElement) le).bind(convHelper);
+      else if(le instanceof SegmentElement)
+        bind(((SegmentElement) le).getElements(), convHelper);
+    }
   }
 
   @Override
@@ -110,20 +233,19 @@ public class Line
    * @throws FlatwormInvalidRecordException
    * @throws FlatwormCreatorException
    */
-  public void parseInput(String inputLine, Map<String, Object> beans, ConversionHelper convHelper, Record parent)
+  public void parseInput(CharSequence inputLine, Map<String, Object> beans, ConversionHelper convHelper, Record parent)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
      FlatwormInvalidRecordException, FlatwormCreatorException
   {
-    this.convHelper = convHelper;
-    this.beans = beans;
-
     // JBL - check for delimited status
     if(isDelimeted())
     {
-      parseInputDelimited(inputLine);
+      parseInputDelimited(inputLine, beans, convHelper);
       return;
     }
 
+    FieldView field = new FieldView();
+    Projection projected = projection;
     int charPos = 0;
     boolean haveDummy = false;
     for(int i = 0; i < elements.size() && !haveDummy; i++)
@@ -182,12 +304,10 @@ public class Line
         else
         {
           String beanRef = re.getBeanRef();
-          if(beanRef != null)
+          if(beanRef != null && (projected == null || projected.mapped[i]))
           {
-            String fieldChars = inputLine.substring(start, end);
-
             // JBL - to keep from dup. code, moved this to a protected method
-            mapField(fieldChars, re);
+            mapField(field.reset(inputLine, start, end), re, beans, convHelper);
           }
         }
       }
@@ -216,7 +336,7 @@ public class Line
                 String beanRef = se.getBeanRef();
                 if (beanRef != null)
                 {
-                    String fieldChars = inputLine.substring(start, end);
+                    String fieldChars = inputLine.subSequence(start, end).toString();
 
                     // JBL - to keep from dup. code, moved this to a protected method
                     mapField(convHelper, fieldChars, se, beans);
@@ -230,17 +350,19 @@ public class Line
   /**
    * Convert string field from file into appropriate type and set bean's value<br>
    *
-   * @param fieldChars the raw string data read from the field
+   * @param fieldChars the raw data read from the field (a view over the input line)
    * @param re the RecordElement, which contains detailed information about the field
+   * @param beans the beans to populate
+   * @param convHelper used to convert the field
    *
    * @throws FlatwormInputLineLengthException
    * @throws FlatwormConversionException
    * @throws FlatwormUnsetFieldValueException
    */
-  protected void mapField(String fieldChars, RecordElement re)
+  protected void mapField(FieldView fieldChars, RecordElement re, Map<String, Object> beans, ConversionHelper convHelper)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException
   {
-    Object value = convHelper.convert(re.getType(), fieldChars, re.getConversionOptions(), re.getBeanRef());
+    Object value = convHelper.convertChars(re, fieldChars);
 
     String beanRef = re.getBeanRef();
     int posOfFirstDot = beanRef.indexOf('.');
@@ -257,6 +379,8 @@ public class Line
    * only<br>
    *
    * @param inputLine the line of data read from the data file
+   * @param beans the beans to populate
+   * @param convHelper used to convert the fields
    *
    * @throws FlatwormInputLineLengthException
    * @throws FlatwormConversionException
@@ -264,55 +388,71 @@ public class Line
    * @throws FlatwormInvalidRecordException
    * @throws FlatwormCreatorException
    */
-  protected void parseInputDelimited(String inputLine)
+  protected void parseInputDelimited(CharSequence inputLine, Map<String, Object> beans, ConversionHelper convHelper)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
      FlatwormInvalidRecordException, FlatwormCreatorException
   {
-    // JBL - gotcha, only 1st char of delimit is considered
-    delimitedFields = Util.split(inputLine, delimit.charAt(0), chrQuote);
-    currentField = 0;
-    doParseDelimitedInput(elements);
+    Projection projected = projection;
+    DelimitedTokenizer fields = tokenizers.get();
+    fields.setDelimiter(delimit, chrQuote);
+    fields.tokenize(inputLine, projected == null ? Integer.MAX_VALUE : projected.tokens);
+    doParseDelimitedInput(elements, new DelimitedInput(fields, beans, convHelper), projected);
+  }
+
+  protected void doParseDelimitedInput(List<LineElement> elements, DelimitedInput in)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
+     FlatwormCreatorException, FlatwormInvalidRecordException
+  {
+    doParseDelimitedInput(elements, in, null);
   }
 
-  protected void doParseDelimitedInput(List<LineElement> elements)
+  /**
+   * @param projected the fields to map (null for all): the elements after the last needed one are skipped
+   */
+  protected void doParseDelimitedInput(List<LineElement> elements, DelimitedInput in, Projection projected)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
      FlatwormCreatorException, FlatwormInvalidRecordException
   {
-    for(int i = 0; i < elements.size(); ++i)
+    int size = projected == null ? elements.size() : Math.min(elements.size(), projected.tokens);
+    for(int i = 0; i < size; ++i)
     {
       LineElement le = (LineElement) elements.get(i);
       if(le instanceof RecordElement)
       {
-        try
+        if(projected != null && !projected.mapped[i])
         {
-          parseDelimitedRecordElement((RecordElement) le, delimitedFields[currentField]);
-          ++currentField;
+          ++in.currentField;
+          continue;
         }
-        catch(ArrayIndexOutOfBoundsException ex)
+
+        if(in.currentField >= in.fieldCount)
         {
           log.error("Ran out of data on field " + i + "\n(" + le + ")");
           throw new FlatwormInputLineLengthException("No data available for record-element " + i + "\n(" + le + ")");
         }
+
+        parseDelimitedRecordElement((RecordElement) le, in.fields.field(in.currentField, in.field), in);
+        ++in.currentField;
       }
       else if(le instanceof SegmentElement)
       {
-        parseDelimitedSegmentElement((SegmentElement) le);
+        parseDelimitedSegmentElement((SegmentElement) le, in);
       }
     }
   }
 
-  protected void parseDelimitedRecordElement(RecordElement re, String fieldStr)
+  protected void parseDelimitedRecordElement(RecordElement re, FieldView field, DelimitedInput in)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException
   {
     String beanRef = re.getBeanRef();
     if(beanRef != null)
     {
       // JBL - to keep from dup. code, moved this to a protected method
-      mapField(fieldStr, re);
+      mapField(field, re, in.beans, in.convHelper);
     }
   }
 
-  protected void parseDelimitedSegmentElement(SegmentElement segment)
+  protected void parseDelimitedSegmentElement(SegmentElement segment, DelimitedInput in)
      throws FlatwormCreatorException, FlatwormInputLineLengthException, FlatwormConversionException,
      FlatwormUnsetFieldValueException, FlatwormInvalidRecordException
   {
@@ -328,14 +468,15 @@ public class Line
     }
     // TODO:  handle allowance for a single instance that is for a field rather than a list
     String beanRef = segment.getBeanRef();
-    if(!segment.matchesId(delimitedFields[currentField]) && minCount > 0)
+    if((in.currentField >= in.fieldCount || !segment.matchesId(in.fields.field(in.currentField, in.field)))
+       && minCount > 0)
     {
       log.error("Segment " + segment.getName() + " with minimun required count of " + minCount + " missing.");
     }
     int cardinality = 0;
     try
     {
-      while(currentField < delimitedFields.length && segment.matchesId(delimitedFields[currentField]))
+      while(in.currentField < in.fieldCount && segment.matchesId(in.fields.field(in.currentField, in.field)))
       {
         if(beanRef != null)
         {
@@ -344,8 +485,8 @@ public class Line
           String addMethod = segment.getAddMethod();
           if(parentRef != null && addMethod != null)
           {
-            Object instance = ParseUtils.newBeanInstance(beans.get(beanRef));
-            beans.put(beanRef, instance);
+            Object instance = ParseUtils.newBeanInstance(in.beans.get(beanRef));
+            in.beans.put(beanRef, instance);
             if(cardinality > maxCount)
             {
               if(segment.getCardinalityMode() == CardinalityMode.STRICT)
@@ -354,15 +495,15 @@ public class Line
               }
               else if(segment.getCardinalityMode() != CardinalityMode.RESTRICTED)
               {
-                ParseUtils.invokeAddMethod(beans.get(parentRef), addMethod, instance);
+                ParseUtils.invokeAddMethod(in.beans.get(parentRef), addMethod, instance);
               }
             }
             else
             {
-              ParseUtils.invokeAddMethod(beans.get(parentRef), addMethod, instance);
+              ParseUtils.invokeAddMethod(in.beans.get(parentRef), addMethod, instance);
             }
           }
-          doParseDelimitedInput(segment.getElements());
+          doParseDelimitedInput(segment.getElements(), in);
         }
       }
     }
@@ -0,0 +1,349 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormConversionException;
+import com.blackbear.flatworm.errors.FlatwormInputLineLengthException;
+import com.blackbear.flatworm.errors.FlatwormUnsetFieldValueException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parse plan of a fixed width <code>Line</code>, compiled once when the format is loaded.
+ * <p>
+ * Positions are kept in int arrays, the bean of each field is an index in the array of beans of the record, and
+ * the converter (see FieldConverter) and the setter are resolved in advance: parsing a line is a loop over arrays
+ * without map lookups, string splitting or unboxing. The plan is immutable and can be used by several threads.
+ * </p>
+ * <p>
+ * A field is parsed by the generic code of Line (<code>mapField()</code>) when it cannot be resolved in advance:
+ * nested or indexed properties, the 'append' option, a custom BeanMappingStrategy, beans that are maps, ...
+ * </p>
+ * <p>
+ * With generated accessors (see Accessors) the methods of MethodConverter and the setters are called through
+ * classes generated at load time instead of MethodHandles and <code>Method.invoke()</code>; these are kept for the
+ * cases the generated classes cannot handle.
+ * </p>
+ */
+public class LinePlan
+{
+  private static final Log log = LogFactory.getLog(LinePlan.class);
+  protected static final int UNSET = Integer.MIN_VALUE;
+
+  protected final Line line;
+  protected final ConversionHelper convHelper;
+  protected final int size;
+  // positions of each field (UNSET if not specified)
+  protected final int[] start;
+  protected final int[] end;
+  protected final int[] length;
+  // resolved mapping: bean index (-1 for fields without beanRef) and fallback flag
+  protected final int[] beanSlot;
+  protected final boolean[] generic;
+  protected final RecordElement[] elements;
+  protected final Map<String, ConversionOption>[] options;
+  protected final OptionPipeline[] pipeline;
+  protected final FieldConverter<Object>[] converter;
+  protected final Method[] setter;
+  // generated accessors (null elements where not available)
+  protected final BiFunction<CharSequence, Object, Object>[] charsFn;
+  protected final BiFunction<String, Object, Object>[] stringFn;
+  protected final BiConsumer<Object, Object>[] setterFn;
+  protected final Class<?>[] valueType;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected LinePlan(Line line, ConversionHelper convHelper, List<RecordElement> fields)
+  {
+    this.line = line;
+    this.convHelper = convHelper;
+    size = fields.size();
+    start = new int[size];
+    end = new int[size];
+    length = new int[size];
+    beanSlot = new int[size];
+    generic = new boolean[size];
+    elements = fields.toArray(new RecordElement[size]);
+    options = new Map[size];
+    pipeline = new OptionPipeline[size];
+    converter = new FieldConverter[size];
+    setter = new Method[size];
+    charsFn = new BiFunction[size];
+    stringFn = new BiFunction[size];
+    setterFn = new BiConsumer[size];
+    valueType = new Class<?>[size];
+  }
+
+  /**
+   * Compile the plan of a line.
+   * @param line the line (fixed width)
+   * @param beanNames names of the beans of the record, the index is the slot used in parse()
+   * @param beanClasses classes of the beans
+   * @param convHelper the conversion helper of the format
+   * @param generate true to generate direct accessors for converters and setters
+   * @return the plan
+   */
+  public static LinePlan compile(Line line, String[] beanNames, Class<?>[] beanClasses, ConversionHelper convHelper,
+     boolean generate)
+  {
+    List<RecordElement> fields = new ArrayList<RecordElement>();
+    List<Boolean> mapped = new ArrayList<Boolean>();
+    List<LineElement> all = line.getElements();
+    for(int i = 0; i < all.size(); i++)
+    {
+      if(all.get(i) instanceof RecordElement)
+      {
+        fields.add((RecordElement) all.get(i));
+        mapped.add(line.isMapped(i));
+      }
+    }
+
+    LinePlan p = new LinePlan(line, convHelper, fields);
+    for(int i = 0; i < p.size; i++)
+    {
+      RecordElement re = p.elements[i];
+      p.start[i] = re.isFieldStartSet() ? re.fieldStart : UNSET;
+      p.end[i] = re.isFieldEndSet() ? re.fieldEnd : UNSET;
+      p.length[i] = re.isFieldLengthSet() ? re.fieldLength : UNSET;
+      p.options[i] = re.getConversionOptions();
+      p.pipeline[i] = re.getOptionPipeline();
+      p.beanSlot[i] = -1;
+
+      // fields excluded by the projection are only skipped
+      if(re.getBeanRef() != null && mapped.get(i))
+        p.generic[i] = !p.resolve(i, re, beanNames, beanClasses);
+
+      if(generate && !p.generic[i] && p.setter[i] != null)
+        p.generate(i);
+    }
+
+    return p;
+  }
+
+  /**
+   * Resolve converter and setter of a field.
+   * @return false if the field must be mapped by the generic code
+   */
+  protected boolean resolve(int i, RecordElement re, String[] beanNames, Class<?>[] beanClasses)
+  {
+    try
+    {
+      converter[i] = convHelper.getFieldConverter(re);
+    }
+    catch(FlatwormConversionException ex)
+    {
+      // the error is reported when the field is parsed
+      return false;
+    }
+
+    if(line.mappingStrategy.getClass() != PropertyUtilsMappingStrategy.class)
+      return false;
+
+    ConversionOption append = re.getConversionOptions().get("append");
+    if(append != null && "true".equalsIgnoreCase(append.getValue()))
+      return false;
+
+    String beanRef = re.getBeanRef();
+    int dot = beanRef.indexOf('.');
+    if(dot < 0)
+      return false;
+
+    String beanName = beanRef.substring(0, dot);
+    String property = beanRef.substring(dot + 1);
+    if(property.indexOf('.') >= 0 || property.indexOf('[') >= 0 || property.indexOf('(') >= 0)
+      return false;
+
+    for(int b = 0; b < beanNames.length; b++)
+    {
+      if(beanNames[b].equals(beanName))
+      {
+        Method m = findSetter(beanClasses[b], property);
+        if(m == null)
+          return false;
+
+        beanSlot[i] = b;
+        setter[i] = m;
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  protected void generate(int i)
+  {
+    // typed converters are already called directly
+    if(converter[i] instanceof MethodConverter)
+    {
+      MethodConverter mc = (MethodConverter) converter[i];
+      if(mc.getCharsMethod() != null)
+        charsFn[i] = Accessors.converter(mc.getTarget(), mc.getCharsMethod());
+      else if(mc.getStringMethod() != null)
+        stringFn[i] = Accessors.converter(mc.getTarget(), mc.getStringMethod());
+    }
+
+    setterFn[i] = Accessors.setter(setter[i]);
+    valueType[i] = Accessors.box(setter[i].getParameterTypes()[0]);
+  }
+
+  /**
+   * The write method that PropertyUtils would use for a simple property.
+   * @return the method or null if the property must be set by PropertyUtils
+   */
+  protected static Method findSetter(Class<?> beanClass, String property)
+  {
+    if(beanClass == null || Map.class.isAssignableFrom(beanClass) || DynaBean.class.isAssignableFrom(beanClass))
+      return null;
+
+    for(PropertyDescriptor pd : PropertyUtils.getPropertyDescriptors(beanClass))
+    {
+      if(pd.getName().equals(property))
+      {
+        Method m = PropertyUtils.getWriteMethod(pd);
+        return m == null ? null : MethodUtils.getAccessibleMethod(beanClass, m);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Parse a line (same behaviour of <code>Line.parseInput()</code>).
+   * @param inputLine the line
+   * @param slots the beans of the record, by slot index
+   * @param beans the beans of the record, by name
+   * @param parent the record
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   */
+  public void parse(CharSequence inputLine, Object[] slots, Map<String, Object> beans, Record parent)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException
+  {
+    FieldView field = new FieldView();
+    int len = inputLine.length();
+    int charPos = 0;
+
+    for(int i = 0; i < size; i++)
+    {
+      int s = start[i] != UNSET ? start[i] : charPos;
+      int e = charPos;
+      boolean last = false;
+
+      if(end[i] != UNSET)
+        charPos = e = end[i];
+
+      int flen = length[i];
+      if(flen != UNSET)
+      {
+        if(flen == 0)
+        {
+          // up to the end of line: must be the last field
+          e = len;
+          last = true;
+        }
+        else if(flen < 0)
+          e = len - flen;
+        else
+          e = s + flen;
+        charPos = e;
+      }
+
+      if(e > len)
+      {
+        if(!parent.isVariableLineLength() && !elements[i].isOptional())
+          throw new FlatwormInputLineLengthException(
+             "In record " + parent.getName()
+             + " looking for field " + elements[i].getBeanRef() + " at pos " + s
+             + ", end " + e + ", input length = " + len);
+      }
+      else if(generic[i])
+        line.mapField(field.reset(inputLine, s, e), elements[i], beans, convHelper);
+      else if(setter[i] != null)
+        set(i, slots[beanSlot[i]], convert(i, field.reset(inputLine, s, e)));
+
+      if(last)
+        break;
+    }
+  }
+
+  protected Object convert(int i, FieldView field)
+     throws FlatwormConversionException
+  {
+    try
+    {
+      pipeline[i].apply(field);
+
+      if(charsFn[i] != null)
+        return charsFn[i].apply(field, options[i]);
+
+      if(stringFn[i] != null)
+        return stringFn[i].apply(field.toString(), options[i]);
+
+      return converter[i].parse(field, options[i]);
+    }
+    catch(Exception e)
+    {
+      log.error("While running convert method for " + elements[i].getBeanRef(), e);
+      throw new FlatwormConversionException("Converting field " + elements[i].getBeanRef()
+         + " with value '" + field + "'");
+    }
+  }
+
+  protected void set(int i, Object bean, Object value)
+     throws FlatwormConversionException
+  {
+    // null for a primitive or a wrong type: the reflective call reports the error like PropertyUtils
+    BiConsumer<Object, Object> fn = setterFn[i];
+    if(fn != null && (value != null || !setter[i].getParameterTypes()[0].isPrimitive())
+       && (value == null || valueType[i].isInstance(value)))
+    {
+      try
+      {
+        fn.accept(bean, value);
+        return;
+      }
+      catch(Exception e)
+      {
+        log.error("While running set property method for " + elements[i].getBeanRef() + "with value '" + value + "'", e);
+        throw new FlatwormConversionException("Setting field " + elements[i].getBeanRef());
+      }
+    }
+
+    try
+    {
+      setter[i].invoke(bean, value);
+    }
+    catch(IllegalAccessException | InvocationTargetException e)
+    {
+      log.error("While running set property method for " + elements[i].getBeanRef() + "with value '" + value + "'", e);
+      throw new FlatwormConversionException("Setting field " + elements[i].getBeanRef());
+    }
+  }
+
+  public boolean isUsable(ConversionHelper convHelper)
+  {
+    return this.convHelper == convHelper;
+  }
+}
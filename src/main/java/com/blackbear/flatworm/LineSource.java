@@ -0,0 +1,35 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of input lines for <code>FileFormat</code> and <code>Record</code>.
+ * <p>
+ * The returned <code>CharSequence</code> may be a window over a buffer owned by the source: it is valid only until
+ * the next call to <code>readLine()</code>. Callers that need to keep the line must copy it (toString()).
+ * </p>
+ */
+public interface LineSource extends Closeable
+{
+  /**
+   * Read the next line, without the line terminator.
+   * @return the line or null at end of input
+   * @throws IOException
+   */
+  CharSequence readLine()
+     throws IOException;
+}
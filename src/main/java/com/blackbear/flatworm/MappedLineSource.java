@@ -0,0 +1,255 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Line source that reads the input file through <code>FileChannel.map</code>.
+ * <p>
+ * The file is mapped in segments (a single mapping can not exceed 2 GB), the line terminators are searched directly
+ * in the mapped bytes and each line is decoded in a reusable <code>CharBuffer</code>: no <code>String</code> is
+ * created for the lines.
+ * </p>
+ * <p>
+ * With a single byte encoding the lines are not decoded at all: they are returned as <code>ByteCharSequence</code>
+ * windows over the mapped bytes.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> only '\n' and '\r\n' are recognized as line terminators, so the encoding must represent them with
+ * the single bytes 0x0A and 0x0D (all the ASCII compatible encodings do it). A line can not be longer than the
+ * segment size.
+ * </p>
+ */
+public class MappedLineSource implements LineSource
+{
+  public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024L * 1024L;
+
+  protected final FileChannel channel;
+  protected final boolean closeChannel;
+  protected final long end;
+  protected long segmentSize;
+  protected final CharsetDecoder decoder;
+  protected final ByteCharSequence bytesLine;
+  protected MappedByteBuffer segment;
+  protected long segmentStart;
+  protected int segmentLimit;
+  protected long position;
+  protected CharBuffer chars = CharBuffer.allocate(256);
+
+  /**
+   * Map the whole file.
+   * @param file full path to input file
+   * @param encoding encoding of the file
+   * @throws FileNotFoundException
+   * @throws UnsupportedEncodingException
+   */
+  public MappedLineSource(String file, String encoding)
+     throws FileNotFoundException, UnsupportedEncodingException
+  {
+    this(checkCharset(forName(encoding)), new RandomAccessFile(file, "r").getChannel(), new File(file).length());
+  }
+
+  private MappedLineSource(Charset charset, FileChannel channel, long size)
+  {
+    this(channel, 0, size, charset, true);
+  }
+
+  /**
+   * Map a portion of the file.
+   * @param channel the file channel
+   * @param start offset of the first line (must be at the start of a line)
+   * @param end offset of the end of the portion (exclusive)
+   * @param charset encoding of the file
+   * @param closeChannel if true the channel is closed by close()
+   */
+  public MappedLineSource(FileChannel channel, long start, long end, Charset charset, boolean closeChannel)
+  {
+    checkCharset(charset);
+    this.channel = channel;
+    this.closeChannel = closeChannel;
+    this.position = start;
+    this.end = end;
+    this.segmentSize = DEFAULT_SEGMENT_SIZE;
+    this.decoder = charset.newDecoder()
+       .onMalformedInput(CodingErrorAction.REPLACE)
+       .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    SingleByteCharset sbc = SingleByteCharset.forCharset(charset);
+    this.bytesLine = sbc == null ? null : new ByteCharSequence(sbc);
+  }
+
+  public static Charset forName(String encoding)
+     throws UnsupportedEncodingException
+  {
+    try
+    {
+      return Charset.forName(encoding);
+    }
+    catch(IllegalArgumentException e)
+    {
+      throw new UnsupportedEncodingException(encoding);
+    }
+  }
+
+  protected static Charset checkCharset(Charset charset)
+  {
+    if(!Arrays.equals("\r\n".getBytes(charset), new byte[]
+    {
+      '\r', '\n'
+    }))
+      throw new IllegalArgumentException("Encoding " + charset.name() + " is not supported by memory mapped input.");
+
+    return charset;
+  }
+
+  /**
+   * Set the maximum size of a single mapping.
+   * @param segmentSize size in bytes (max Integer.MAX_VALUE)
+   */
+  public void setSegmentSize(long segmentSize)
+  {
+    if(segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+
+    this.segmentSize = segmentSize;
+  }
+
+  public long getSegmentSize()
+  {
+    return segmentSize;
+  }
+
+  /**
+   * Offset in the file of the next line to read.
+   * @return offset in bytes
+   */
+  public long getPosition()
+  {
+    return position;
+  }
+
+  /**
+   * Move to another line; the mapping is changed only if the offset is outside the current segment.
+   * @param position offset in the file of the next line to read (must be at the start of a line)
+   */
+  public void seek(long position)
+  {
+    if(segment != null && (position < segmentStart || position >= segmentStart + segmentLimit))
+      segment = null;
+
+    this.position = position;
+  }
+
+  @Override
+  public CharSequence readLine()
+     throws IOException
+  {
+    if(position >= end)
+      return null;
+
+    while(true)
+    {
+      if(segment == null || position >= segmentStart + segmentLimit)
+        map(position);
+
+      int from = (int) (position - segmentStart);
+      int nl = indexOf(segment, from, segmentLimit, (byte) '\n');
+      int stop;
+      long next;
+
+      if(nl < 0)
+      {
+        if(segmentStart + segmentLimit < end)
+        {
+          // the line continues in the next portion of the file: map again starting from this line
+          if(from == 0)
+            throw new IOException("Line at offset " + position + " is longer than the segment size " + segmentSize);
+
+          map(position);
+          continue;
+        }
+
+        // last line without terminator
+        stop = segmentLimit;
+        next = end;
+      }
+      else
+      {
+        stop = nl;
+        next = segmentStart + nl + 1;
+      }
+
+      if(stop > from && segment.get(stop - 1) == '\r')
+        stop--;
+
+      position = next;
+
+      if(bytesLine != null)
+        return bytesLine.reset(segment, from, stop - from);
+
+      decode(from, stop);
+      return chars;
+    }
+  }
+
+  protected void map(long pos)
+     throws IOException
+  {
+    long size = Math.min(segmentSize, end - pos);
+    segment = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+    segmentStart = pos;
+    segmentLimit = (int) size;
+  }
+
+  protected void decode(int from, int to)
+  {
+    int maxChars = (int) Math.ceil((to - from) * (double) decoder.maxCharsPerByte());
+    if(chars.capacity() < maxChars)
+      chars = CharBuffer.allocate(Math.max(maxChars, chars.capacity() * 2));
+
+    segment.limit(to).position(from);
+    chars.clear();
+    decoder.reset();
+    decoder.decode(segment, chars, true);
+    decoder.flush(chars);
+    chars.flip();
+    segment.limit(segmentLimit);
+  }
+
+  protected static int indexOf(MappedByteBuffer buf, int from, int to, byte b)
+  {
+    return ByteScanner.indexOf(buf, from, to, b);
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    segment = null;
+    if(closeChannel)
+      channel.close();
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormConversionException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * Adapter of the converters declared with a <code>method</code> (see CoreConverters) to FieldConverter.
+ * <p>
+ * The overloads of the method are looked up once and bound to the converter instance as MethodHandles:
+ * <ul>
+ * <li><code>method(String, Map)</code> or <code>method(CharSequence, Map)</code> to parse (the CharSequence
+ * overload is preferred, it receives the field without copying it);</li>
+ * <li><code>String method(Object, Map)</code> to format.</li>
+ * </ul>
+ * A missing overload is reported only when the direction is used.
+ * </p>
+ */
+public class MethodConverter implements FieldConverter<Object>
+{
+  protected static final MethodType PARSE_STRING = MethodType.methodType(Object.class, String.class, Map.class);
+  protected static final MethodType PARSE_CHARS = MethodType.methodType(Object.class, CharSequence.class, Map.class);
+  protected static final MethodType FORMAT = MethodType.methodType(String.class, Object.class, Map.class);
+
+  protected final Object target;
+  protected final String methodName;
+  protected final Method stringMethod;
+  protected final Method charsMethod;
+  protected final Method toStringMethod;
+  protected final MethodHandle parseString;
+  protected final MethodHandle parseChars;
+  protected final MethodHandle formatString;
+
+  /**
+   * @param target the converter instance
+   * @param methodName name of the method (for the error messages)
+   * @param stringMethod the <code>(String, Map)</code> overload or null
+   * @param charsMethod the <code>(CharSequence, Map)</code> overload or null
+   * @param toStringMethod the <code>(Object, Map)</code> overload or null
+   * @throws IllegalAccessException if a method is not accessible
+   */
+  public MethodConverter(Object target, String methodName, Method stringMethod, Method charsMethod,
+     Method toStringMethod)
+     throws IllegalAccessException
+  {
+    this.target = target;
+    this.methodName = methodName;
+    this.stringMethod = stringMethod;
+    this.charsMethod = charsMethod;
+    this.toStringMethod = toStringMethod;
+    this.parseString = handle(target, stringMethod, PARSE_STRING);
+    this.parseChars = handle(target, charsMethod, PARSE_CHARS);
+    this.formatString = handle(target, toStringMethod, FORMAT);
+  }
+
+  protected static MethodHandle handle(Object target, Method m, MethodType type)
+     throws IllegalAccessException
+  {
+    if(m == null)
+      return null;
+
+    MethodHandle h = MethodHandles.publicLookup().unreflect(m);
+    if(!Modifier.isStatic(m.getModifiers()))
+      h = h.bindTo(target);
+    return h.asType(type);
+  }
+
+  public Object getTarget()
+  {
+    return target;
+  }
+
+  public Method getStringMethod()
+  {
+    return stringMethod;
+  }
+
+  public Method getCharsMethod()
+  {
+    return charsMethod;
+  }
+
+  @Override
+  public Object parse(CharSequence value, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
+  {
+    if(parseChars == null)
+      return parseString(value.toString(), options);
+
+    try
+    {
+      return (Object) parseChars.invokeExact(value, options);
+    }
+    catch(Throwable t)
+    {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Parse with the String overload (if present), as the converters were called before FieldConverter.
+   * @param value the text of the field
+   * @param options the conversion options of the field
+   * @return the value
+   * @throws FlatwormConversionException
+   */
+  public Object parseString(String value, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
+  {
+    if(parseString == null)
+    {
+      if(parseChars == null)
+        throw new FlatwormConversionException("Couldn't Find Method");
+      return parse(value, options);
+    }
+
+    try
+    {
+      return (Object) parseString.invokeExact(value, options);
+    }
+    catch(Throwable t)
+    {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void format(Object value, Appendable out, Map<String, ConversionOption> options)
+     throws IOException, FlatwormConversionException
+  {
+    String s = formatString(value, options);
+    if(s != null)
+      out.append(s);
+  }
+
+  /**
+   * @param value the value
+   * @param options the conversion options of the field
+   * @return the string returned by the converter (can be null)
+   * @throws FlatwormConversionException
+   */
+  public String formatString(Object value, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
+  {
+    if(formatString == null)
+      throw new FlatwormConversionException("Couldn't Find Method 'String " + methodName + "(Object, HashMap)'");
+
+    try
+    {
+      return (String) formatString.invokeExact(value, options);
+    }
+    catch(Throwable t)
+    {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * The unchecked exceptions and the conversion errors are thrown as they are, the others are wrapped.
+   */
+  protected static FlatwormConversionException rethrow(Throwable t)
+  {
+    if(t instanceof RuntimeException)
+      throw (RuntimeException) t;
+    if(t instanceof Error)
+      throw (Error) t;
+    if(t instanceof FlatwormConversionException)
+      return (FlatwormConversionException) t;
+
+    return new FlatwormConversionException(String.valueOf(t.getMessage()));
+  }
+}
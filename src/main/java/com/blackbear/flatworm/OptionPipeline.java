@@ -0,0 +1,294 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.commonlib5.utils.StringOper;
+
+/**
+ * The conversion options of a field compiled in the array of transformations to apply (justify, strip-chars,
+ * substring, default-value), in the same order <code>ConversionHelper.transformString()</code> iterates the
+ * options, with their arguments already parsed. The other options (converter options, built-in options like
+ * fieldStart or beanRef) are not part of the pipeline, so a field costs only the transformations it declares.
+ * <p>
+ * A pipeline is immutable and can be used by several threads. RecordElement keeps the pipeline of its options.
+ * </p>
+ */
+public class OptionPipeline
+{
+  public static final OptionPipeline EMPTY = new OptionPipeline(new Op[0]);
+
+  protected final Op[] ops;
+
+  protected OptionPipeline(Op[] ops)
+  {
+    this.ops = ops;
+  }
+
+  /**
+   * @param options the conversion options of a field
+   * @return the pipeline (EMPTY if there are no transformations)
+   */
+  public static OptionPipeline compile(Map<String, ConversionOption> options)
+  {
+    List<Op> ops = new ArrayList<Op>();
+
+    for(ConversionOption conv : options.values())
+    {
+      switch(StringOper.okStr(conv.getName()).toLowerCase())
+      {
+        case "justify":
+          ops.add(new Justify(conv.getValue(), Util.getValue(options, "pad-character")));
+          break;
+        case "strip-chars":
+          Pattern p = Util.stripPattern(conv.getValue());
+          if(p != null)
+            ops.add(new Strip(p));
+          break;
+        case "substring":
+          ops.add(new Substring(conv.getValue(), options));
+          break;
+        case "default-value":
+          ops.add(new DefaultValue(conv.getValue()));
+          break;
+      }
+    }
+
+    return ops.isEmpty() ? EMPTY : new OptionPipeline(ops.toArray(new Op[ops.size()]));
+  }
+
+  public boolean isEmpty()
+  {
+    return ops.length == 0;
+  }
+
+  /**
+   * Same as <code>ConversionHelper.transformString(fieldChars, options, length)</code>.
+   * @param fieldChars The string to be transformed
+   * @param length Used in justification to ensure proper formatting (0 when parsing)
+   * @return The transformed string
+   */
+  public String apply(String fieldChars, int length)
+  {
+    for(Op op : ops)
+      fieldChars = op.apply(fieldChars, length);
+
+    if(length > 0)
+    {
+      // Never request string to be zero length
+      if(fieldChars.length() > length) // too long, chop it off
+        fieldChars = fieldChars.substring(0, length);
+      else if(fieldChars.length() < length) // too short, add spaces
+        fieldChars = StringOper.GetFixedString(fieldChars, length);
+    }
+
+    return fieldChars;
+  }
+
+  /**
+   * Same as <code>ConversionHelper.transformChars(field, options)</code>.
+   * @param field The field to be transformed
+   */
+  public void apply(FieldView field)
+  {
+    for(Op op : ops)
+      op.apply(field);
+  }
+
+  /**
+   * A transformation with its parsed arguments.
+   */
+  protected abstract static class Op
+  {
+    protected abstract String apply(String str, int length);
+
+    protected abstract void apply(FieldView field);
+  }
+
+  /**
+   * See Util.justify().
+   */
+  protected static class Justify extends Op
+  {
+    protected final boolean justifyLeft;
+    protected final boolean justifyRight;
+    protected final String padChars;
+
+    protected Justify(String value, String padChars)
+    {
+      if(value == null)
+        value = "both";
+
+      String v = value.toLowerCase();
+      justifyLeft = v.equals("left") || v.equals("both");
+      justifyRight = v.equals("right") || v.equals("both");
+      this.padChars = padChars == null ? " " : padChars;
+    }
+
+    @Override
+    protected String apply(String str, int length)
+    {
+      // if length is 0, we are removing padding, otherwise, we are adding it
+      if(length == 0)
+      {
+        if(!justifyLeft && !justifyRight)
+          return str;
+
+        int end = str.length();
+        if(justifyLeft)
+        {
+          while(end > 0 && padChars.indexOf(str.charAt(end - 1)) != -1)
+            end--;
+        }
+
+        int start = 0;
+        if(justifyRight)
+        {
+          while(start < end && padChars.indexOf(str.charAt(start)) != -1)
+            start++;
+        }
+
+        return start == 0 && end == str.length() ? str : str.substring(start, end);
+      }
+
+      // pad only with first character
+      char pad = padChars.charAt(0);
+      if(str.length() >= length)
+        return str;
+
+      StringBuilder sb = new StringBuilder(length * 2);
+      int lenDiff = length - str.length();
+      if(justifyRight)
+        appendPadding(sb, pad, lenDiff);
+      sb.append(str);
+      if(justifyLeft)
+        appendPadding(sb, pad, lenDiff);
+      return sb.toString();
+    }
+
+    protected static void appendPadding(StringBuilder sb, char pad, int n)
+    {
+      for(int i = 0; i < n; i++)
+        sb.append(pad);
+    }
+
+    @Override
+    protected void apply(FieldView field)
+    {
+      field.trim(padChars, justifyLeft, justifyRight);
+    }
+  }
+
+  /**
+   * See Util.strip().
+   */
+  protected static class Strip extends Op
+  {
+    protected final Pattern pattern;
+
+    protected Strip(Pattern pattern)
+    {
+      this.pattern = pattern;
+    }
+
+    @Override
+    protected String apply(String str, int length)
+    {
+      return pattern.matcher(str).replaceAll("");
+    }
+
+    @Override
+    protected void apply(FieldView field)
+    {
+      field.reset(apply(field.toString(), 0));
+    }
+  }
+
+  /**
+   * See Util.substring().
+   */
+  protected static class Substring extends Op
+  {
+    protected final String value;
+    protected final Map<String, ConversionOption> options;
+    protected int begin;
+    protected int end;
+    protected boolean valid = false;
+
+    protected Substring(String value, Map<String, ConversionOption> options)
+    {
+      this.value = value;
+      this.options = options;
+
+      try
+      {
+        String[] args = value.split(",");
+        if(args.length >= 2)
+        {
+          begin = Integer.parseInt(args[0]);
+          end = Integer.parseInt(args[1]);
+          valid = true;
+        }
+      }
+      catch(RuntimeException ex)
+      {
+        // a wrong value is reported each time the option is applied
+      }
+    }
+
+    @Override
+    protected String apply(String str, int length)
+    {
+      return valid ? str.substring(begin, end) : Util.substring(str, value, options);
+    }
+
+    @Override
+    protected void apply(FieldView field)
+    {
+      if(valid)
+        field.narrow(begin, end);
+      else
+        Util.substring(field, value, options);
+    }
+  }
+
+  /**
+   * See Util.defaultValue().
+   */
+  protected static class DefaultValue extends Op
+  {
+    protected final String value;
+
+    protected DefaultValue(String value)
+    {
+      this.value = value;
+    }
+
+    @Override
+    protected String apply(String str, int length)
+    {
+      return Util.defaultValue(str, value, null);
+    }
+
+    @Override
+    protected void apply(FieldView field)
+    {
+      if(value != null && field.isBlank())
+        field.reset(value);
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormInvalidRecordException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parse a single file on a <code>ForkJoinPool</code>.
+ * <p>
+ * The file is split in byte ranges aligned to record boundaries and each range is parsed by a separate task.
+ * When all the records are single line any line start is a record boundary; when the format contains multi-line
+ * records the boundaries are found with a framing pass that only matches the first line of each record and skips
+ * its continuation lines, so a record is never split between two ranges.
+ * </p>
+ * <p>
+ * The records can be delivered to the callbacks in file order (from the calling thread) or unordered (directly from
+ * the worker threads: in this case the callbacks must be thread safe). An exception thrown by a callback stops the
+ * read and is rethrown by read() when all the running tasks are over.
+ * </p>
+ * <p>
+ * In order, the records of a range are kept as beans until all the ranges before it are delivered. To bound the
+ * memory, the ranges parsed or waiting at the same time cover at most about MAX_ORDERED_BYTES of input.
+ * Unordered, the records are delivered as soon as they are parsed.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> byte ranges are framed on '\n', so the encoding must be ASCII compatible (see MappedLineSource).
+ * </p>
+ */
+public class ParallelFileReader
+{
+  public static final long MIN_CHUNK_SIZE = 1024L * 1024L;
+  public static final long MAX_CHUNK_SIZE = 64L * 1024L * 1024L;
+  // input parsed ahead of the callbacks in ordered mode (see read())
+  public static final long MAX_ORDERED_BYTES = 128L * 1024L * 1024L;
+
+  protected final FileParser parser;
+  protected final FileFormat ff;
+  protected final String file;
+  protected final Charset charset;
+  protected final boolean multiLine;
+
+  protected FileChannel channel;
+  protected long size;
+  protected MappedLineSource framer;
+  // first exception thrown by a callback invoked from a worker (unordered mode)
+  protected final AtomicReference<RuntimeException> callbackError = new AtomicReference<RuntimeException>();
+  protected volatile boolean stopped;
+
+  public ParallelFileReader(FileParser parser, FileFormat ff, String file)
+     throws IOException
+  {
+    this.parser = parser;
+    this.ff = ff;
+    this.file = file;
+    this.charset = MappedLineSource.checkCharset(MappedLineSource.forName(ff.getEncoding()));
+    this.multiLine = hasMultiLineRecords(ff);
+  }
+
+  protected static boolean hasMultiLineRecords(FileFormat ff)
+  {
+    for(Record r : ff.recordOrder)
+    {
+      if(r.getRecordDefinition() != null && r.getRecordDefinition().getLines().size() > 1)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Parse the whole file.
+   * @param pool the pool where the ranges are parsed
+   * @param ordered if true the callbacks are invoked in file order from the calling thread; the records parsed
+   * ahead of the callbacks are those of about MAX_ORDERED_BYTES of input (at least two ranges of MIN_CHUNK_SIZE)
+   * @throws IOException
+   */
+  public void read(ForkJoinPool pool, boolean ordered)
+     throws IOException
+  {
+    channel = new RandomAccessFile(file, "r").getChannel();
+
+    try
+    {
+      size = channel.size();
+      if(multiLine)
+        framer = new MappedLineSource(channel, 0, size, charset, false);
+
+      long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (pool.getParallelism() * 4L)));
+      int window = pool.getParallelism() * 2;
+      if(ordered)
+      {
+        // bound the records waiting for the callbacks: smaller ranges, and fewer if still too much input
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(chunkSize, MAX_ORDERED_BYTES / window));
+        window = (int) Math.max(2, Math.min(window, MAX_ORDERED_BYTES / chunkSize));
+      }
+      Deque<ForkJoinTask<List<Object>>> inFlight = new ArrayDeque<ForkJoinTask<List<Object>>>();
+      long start = 0;
+
+      try
+      {
+        while((start < size || !inFlight.isEmpty()) && callbackError.get() == null)
+        {
+          while(start < size && inFlight.size() < window)
+          {
+            long end = nextBoundary(start + chunkSize);
+            inFlight.addLast(pool.submit(new RangeTask(start, end, !ordered)));
+            start = end;
+          }
+
+          List<Object> results = inFlight.removeFirst().join();
+          if(ordered)
+            dispatch(results);
+        }
+      }
+      finally
+      {
+        // the tasks still running read the channel: wait for them before closing it
+        stopped = true;
+        for(ForkJoinTask<List<Object>> task : inFlight)
+          task.quietlyJoin();
+      }
+
+      RuntimeException ex = callbackError.get();
+      if(ex != null)
+        throw ex;
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * Find the first record boundary at or after the specified offset.
+   * @param offset nominal offset
+   * @return offset of the start of a record (or the file size)
+   * @throws IOException
+   */
+  protected long nextBoundary(long offset)
+     throws IOException
+  {
+    if(offset >= size)
+      return size;
+
+    return multiLine ? nextRecordStart(offset) : nextLineStart(offset);
+  }
+
+  protected long nextLineStart(long offset)
+     throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    long pos = offset - 1;
+
+    while(pos < size)
+    {
+      buf.clear();
+      int n = channel.read(buf, pos);
+      if(n <= 0)
+        break;
+
+      int nl = ByteScanner.indexOf(buf, 0, n, (byte) '\n');
+      if(nl >= 0)
+        return pos + nl + 1;
+      pos += n;
+    }
+    return size;
+  }
+
+  protected long nextRecordStart(long offset)
+     throws IOException
+  {
+    while(framer.getPosition() < offset)
+    {
+      CharSequence line = framer.readLine();
+      if(line == null)
+        return size;
+
+      if(line.length() == 0)
+        continue;
+
+      // skip the continuation lines of the record
+      Record rd = ff.findMatchingRecord(line);
+      if(rd != null)
+      {
+        for(int i = 1; i < rd.getRecordDefinition().getLines().size(); i++)
+          framer.readLine();
+      }
+    }
+    return Math.min(framer.getPosition(), size);
+  }
+
+  protected void dispatch(List<Object> results)
+  {
+    for(Object o : results)
+    {
+      if(o instanceof MatchedRecord)
+      {
+        MatchedRecord mr = (MatchedRecord) o;
+        parser.doCallback(mr.getRecordName(), mr);
+      }
+      else
+      {
+        ParseError err = (ParseError) o;
+        parser.doExceptionCallback(err.ex, FileParser.getExceptionName(err.ex), err.line);
+      }
+    }
+  }
+
+  /**
+   * An exception with the line that caused it.
+   */
+  protected static class ParseError
+  {
+    protected final Exception ex;
+    protected final String line;
+
+    public ParseError(Exception ex, String line)
+    {
+      this.ex = ex;
+      this.line = line;
+    }
+  }
+
+  /**
+   * Parse all the records of a byte range.
+   */
+  protected class RangeTask implements Callable<List<Object>>
+  {
+    protected final long start;
+    protected final long end;
+    protected final boolean dispatch;
+
+    public RangeTask(long start, long end, boolean dispatch)
+    {
+      this.start = start;
+      this.end = end;
+      this.dispatch = dispatch;
+    }
+
+    @Override
+    public List<Object> call()
+       throws Exception
+    {
+      List<Object> results = new ArrayList<Object>();
+      MappedLineSource in = new MappedLineSource(channel, start, end, charset, false);
+      ParseContext ctx = ff.newContext();
+
+      try
+      {
+        CharSequence line;
+        while(!stopped && (line = in.readLine()) != null)
+        {
+          if(line.length() == 0)
+            continue;
+
+          // copy of the line for the errors, the continuation lines overwrite it
+          ctx.setLastLine(line);
+          try
+          {
+            Record rd = ff.findMatchingRecord(line);
+            if(rd == null)
+              throw new FlatwormInvalidRecordException("Unmatched line in input file");
+
+            Map<String, Object> beans = ff.parseRecord(rd, line, in, ctx);
+            if(beans != null)
+              results.add(new MatchedRecord(rd.getName(), beans));
+          }
+          catch(Exception ex)
+          {
+            results.add(new ParseError(ex, ctx.getLastLine()));
+          }
+
+          if(dispatch)
+          {
+            try
+            {
+              dispatch(results);
+            }
+            catch(RuntimeException ex)
+            {
+              callbackError.compareAndSet(null, ex);
+              stopped = true;
+            }
+            results.clear();
+          }
+        }
+      }
+      finally
+      {
+        in.close();
+      }
+
+      return results;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+/**
+ * Mutable state of a single parse: the line being parsed (for the error messages) and the buffers reused from one
+ * record to the next. The FileFormat holds only the configuration, so a format can be shared by any number of
+ * concurrent parsers, each with its own context (see FileFormat.freeze()).
+ * <p>
+ * A context is not thread safe: it must be used by one thread at a time.
+ * </p>
+ */
+public class ParseContext
+{
+  protected final FileFormat ff;
+  // copy of the first line of the last record: the line sources reuse their buffers for the next lines
+  protected final StringBuilder lastLine = new StringBuilder();
+  protected boolean endOfInput = false;
+  // view used to evaluate the filters of the records (created on first use)
+  protected RecordView filterView;
+
+  public ParseContext(FileFormat ff)
+  {
+    this.ff = ff;
+  }
+
+  public FileFormat getFileFormat()
+  {
+    return ff;
+  }
+
+  /**
+   * @return the last line read, gives access to the bad line when parsing fails (null at the end of input)
+   */
+  public String getLastLine()
+  {
+    return endOfInput ? null : lastLine.toString();
+  }
+
+  public void setLastLine(CharSequence line)
+  {
+    lastLine.setLength(0);
+    endOfInput = line == null;
+    if(line != null)
+      lastLine.append(line);
+  }
+
+  public RecordView getFilterView()
+  {
+    if(filterView == null)
+      filterView = new RecordView(ff);
+    return filterView;
+  }
+}
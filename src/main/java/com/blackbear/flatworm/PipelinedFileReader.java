@@ -0,0 +1,317 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormInvalidRecordException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Three stages pipeline used by <code>FileParser.readPipelined()</code>:
+ * <ul>
+ * <li>a reader thread that frames the lines of each record;</li>
+ * <li>N worker threads that parse the records (conversion and bean mapping);</li>
+ * <li>the calling thread, that dispatches the records to the callbacks in file order.</li>
+ * </ul>
+ * The stages share a preallocated ring of slots: each stage follows its own sequence and a slot is reused once the
+ * dispatcher has consumed it. Lines are copied in reusable buffers of the slot, so in steady state only the beans
+ * and the MatchedRecord are allocated.
+ */
+public class PipelinedFileReader
+{
+  private static final Log log = LogFactory.getLog(PipelinedFileReader.class);
+  public static final int DEFAULT_RING_SIZE = 1024;
+  // busy spinning is useless on a single processor
+  protected static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+  protected final FileParser parser;
+  protected final FileFormat ff;
+  protected final LineSource in;
+  protected final Slot[] ring;
+  protected final int mask;
+  protected final int numWorkers;
+
+  // sequence of the next record to parse, shared by the workers
+  protected final AtomicLong nextToParse = new AtomicLong();
+  // number of records read, valid when readerDone is true
+  protected volatile long produced = 0;
+  protected volatile boolean readerDone = false;
+  // last sequence dispatched: the slots up to it can be reused
+  protected volatile long dispatched = -1;
+  protected volatile boolean aborted = false;
+
+  /**
+   * A ring slot: the lines of a record and the result of its parsing.
+   */
+  protected static class Slot
+  {
+    protected StringBuilder[] lines = new StringBuilder[]
+    {
+      new StringBuilder(256)
+    };
+    protected int lineCount;
+    protected Record record;
+    protected MatchedRecord result;
+    protected Exception error;
+    protected volatile long published = -1;
+    protected volatile long parsed = -1;
+
+    protected StringBuilder line(int i)
+    {
+      if(i >= lines.length)
+      {
+        StringBuilder[] tmp = new StringBuilder[i + 1];
+        System.arraycopy(lines, 0, tmp, 0, lines.length);
+        for(int j = lines.length; j < tmp.length; j++)
+          tmp[j] = new StringBuilder(256);
+        lines = tmp;
+      }
+      return lines[i];
+    }
+  }
+
+  /**
+   * Supplies the continuation lines of a slot to FileFormat.parseRecord().
+   */
+  protected static class SlotLineSource implements LineSource
+  {
+    protected Slot slot;
+    protected int next;
+
+    protected SlotLineSource reset(Slot slot)
+    {
+      this.slot = slot;
+      this.next = 1;
+      return this;
+    }
+
+    @Override
+    public CharSequence readLine()
+    {
+      return next < slot.lineCount ? slot.lines[next++] : null;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * @param parser the parser with the callbacks
+   * @param ff the file format
+   * @param in the opened input
+   * @param numWorkers number of parser threads
+   * @param ringSize number of slots (rounded up to a power of two)
+   */
+  public PipelinedFileReader(FileParser parser, FileFormat ff, LineSource in, int numWorkers, int ringSize)
+  {
+    if(numWorkers < 1)
+      throw new IllegalArgumentException("At least one worker is required.");
+
+    int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+    this.parser = parser;
+    this.ff = ff;
+    this.in = in;
+    this.numWorkers = numWorkers;
+    this.ring = new Slot[size];
+    this.mask = size - 1;
+    for(int i = 0; i < size; i++)
+      ring[i] = new Slot();
+  }
+
+  /**
+   * Run the pipeline until the end of input.
+   */
+  public void read()
+  {
+    Thread reader = new Thread(this::readLoop, "flatworm-reader");
+    Thread[] workers = new Thread[numWorkers];
+    for(int i = 0; i < numWorkers; i++)
+      workers[i] = new Thread(this::parseLoop, "flatworm-parser-" + i);
+
+    reader.setDaemon(true);
+    reader.start();
+    for(Thread t : workers)
+    {
+      t.setDaemon(true);
+      t.start();
+    }
+
+    try
+    {
+      dispatchLoop();
+    }
+    finally
+    {
+      aborted = true;
+      join(reader);
+      for(Thread t : workers)
+        join(t);
+    }
+  }
+
+  protected static void join(Thread t)
+  {
+    try
+    {
+      t.join();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stage 1: frame the lines of each record in the ring.
+   */
+  protected void readLoop()
+  {
+    long seq = 0;
+
+    try
+    {
+      CharSequence line;
+      while(!aborted && (line = in.readLine()) != null)
+      {
+        if(line.length() == 0)
+          continue;
+
+        // wait for the slot to be released by the dispatcher
+        for(int spins = 0; dispatched < seq - ring.length; spins++)
+        {
+          if(aborted)
+            return;
+          backoff(spins);
+        }
+
+        Slot slot = ring[(int) (seq & mask)];
+        slot.result = null;
+        slot.error = null;
+        slot.line(0).setLength(0);
+        slot.line(0).append(line);
+        slot.record = ff.findMatchingRecord(line);
+        slot.lineCount = 1;
+
+        if(slot.record != null)
+        {
+          int numLines = slot.record.getRecordDefinition().getLines().size();
+          CharSequence cont;
+          while(slot.lineCount < numLines && (cont = in.readLine()) != null)
+          {
+            slot.line(slot.lineCount).setLength(0);
+            slot.line(slot.lineCount).append(cont);
+            slot.lineCount++;
+          }
+        }
+
+        slot.published = seq++;
+      }
+    }
+    catch(IOException ex)
+    {
+      log.error("Reading input", ex);
+    }
+    finally
+    {
+      produced = seq;
+      readerDone = true;
+    }
+  }
+
+  /**
+   * Stage 2: parse the records (run by each worker).
+   */
+  protected void parseLoop()
+  {
+    SlotLineSource lines = new SlotLineSource();
+    ParseContext ctx = ff.newContext();
+
+    while(true)
+    {
+      long seq = nextToParse.getAndIncrement();
+      Slot slot = ring[(int) (seq & mask)];
+
+      for(int spins = 0; slot.published != seq; spins++)
+      {
+        if(aborted || (readerDone && seq >= produced))
+          return;
+        backoff(spins);
+      }
+
+      try
+      {
+        if(slot.record == null)
+          throw new FlatwormInvalidRecordException("Unmatched line in input file");
+
+        // a record rejected by the filters is left without result
+        Map<String, Object> beans = ff.parseRecord(slot.record, slot.lines[0], lines.reset(slot), ctx);
+        if(beans != null)
+          slot.result = new MatchedRecord(slot.record.getName(), beans);
+      }
+      catch(Exception ex)
+      {
+        slot.error = ex;
+      }
+
+      slot.parsed = seq;
+    }
+  }
+
+  /**
+   * Stage 3: call the handlers in file order.
+   */
+  protected void dispatchLoop()
+  {
+    for(long seq = 0;; seq++)
+    {
+      Slot slot = ring[(int) (seq & mask)];
+
+      for(int spins = 0; slot.parsed != seq; spins++)
+      {
+        if(readerDone && seq >= produced)
+          return;
+        backoff(spins);
+      }
+
+      if(slot.error != null)
+        parser.doExceptionCallback(slot.error, FileParser.getExceptionName(slot.error), slot.lines[0].toString());
+      else if(slot.result != null)
+        parser.doCallback(slot.result.getRecordName(), slot.result);
+
+      slot.result = null;
+      dispatched = seq;
+    }
+  }
+
+  /**
+   * Wait strategy: spin, then yield, then park for increasing times.
+   * @param spins number of previous attempts
+   */
+  protected static void backoff(int spins)
+  {
+    if(spins < SPINS)
+      return;
+
+    if(spins < SPINS + 64)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(1000L << Math.min(10, (spins - SPINS - 64) >> 4));
+  }
+}
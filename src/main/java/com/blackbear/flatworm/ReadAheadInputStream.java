@@ -0,0 +1,248 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream that reads its source on a background thread into a bounded queue of reusable blocks.
+ * <p>
+ * Used for compressed input: the decompression runs on its own thread and overlaps with the parsing done by the
+ * reader of this stream. The source can be wrapped by a <code>Decoder</code> (i.e. <code>GZIPInputStream::new</code>);
+ * the decoder is applied on the background thread, so errors in the compressed header are reported on the first
+ * read.
+ * </p>
+ */
+public class ReadAheadInputStream extends InputStream
+{
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  public static final int DEFAULT_BLOCKS = 4;
+
+  // end of data marker
+  protected static final Block EOF = new Block(0);
+
+  protected final InputStream in;
+  protected final Decoder decoder;
+  protected final BlockingQueue<Block> filled;
+  protected final BlockingQueue<Block> free;
+  protected final Thread thread;
+  protected volatile InputStream source;
+  protected volatile IOException error;
+  protected volatile boolean closed = false;
+  protected Block current;
+  protected int pos;
+  protected boolean eof = false;
+
+  /**
+   * Wraps the raw input into a decoding stream.
+   */
+  public interface Decoder
+  {
+    InputStream decode(InputStream in)
+       throws IOException;
+  }
+
+  protected static class Block
+  {
+    protected final byte[] data;
+    protected int length;
+
+    public Block(int size)
+    {
+      data = new byte[size];
+    }
+  }
+
+  public ReadAheadInputStream(InputStream in)
+  {
+    this(in, null);
+  }
+
+  public ReadAheadInputStream(InputStream in, Decoder decoder)
+  {
+    this(in, decoder, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+  }
+
+  /**
+   * @param in the raw input
+   * @param decoder decoder applied to the raw input (may be null)
+   * @param blockSize size of each block
+   * @param blocks number of blocks (the memory used is blockSize * blocks)
+   */
+  public ReadAheadInputStream(InputStream in, Decoder decoder, int blockSize, int blocks)
+  {
+    this.in = in;
+    this.decoder = decoder;
+    this.filled = new ArrayBlockingQueue<Block>(blocks + 1);
+    this.free = new ArrayBlockingQueue<Block>(blocks);
+    for(int i = 0; i < blocks; i++)
+      free.add(new Block(blockSize));
+
+    thread = new Thread(this::fillLoop, "flatworm-read-ahead");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Body of the background thread: fill the free blocks until end of input.
+   */
+  protected void fillLoop()
+  {
+    try
+    {
+      source = decoder == null ? in : decoder.decode(in);
+
+      int r = 0;
+      while(!closed && r >= 0)
+      {
+        Block b = free.take();
+        int n = 0;
+        while(n < b.data.length && (r = source.read(b.data, n, b.data.length - n)) >= 0)
+          n += r;
+
+        b.length = n;
+        if(n > 0)
+          filled.put(b);
+        else
+          free.put(b);
+      }
+    }
+    catch(IOException ex)
+    {
+      error = ex;
+    }
+    catch(RuntimeException ex)
+    {
+      error = new IOException(ex.getMessage(), ex);
+    }
+    catch(InterruptedException ex)
+    {
+      // closed
+    }
+    finally
+    {
+      // always room for the marker: at most all the blocks are in the queue
+      filled.offer(EOF);
+    }
+  }
+
+  /**
+   * Get the next block of data.
+   * @return false at end of input
+   * @throws IOException
+   */
+  protected boolean nextBlock()
+     throws IOException
+  {
+    if(current != null)
+      return true;
+
+    if(eof)
+      return false;
+
+    try
+    {
+      current = filled.take();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+
+    if(current == EOF)
+    {
+      current = null;
+      eof = true;
+      if(error != null)
+        throw error;
+
+      return false;
+    }
+
+    pos = 0;
+    return true;
+  }
+
+  protected void releaseBlock()
+  {
+    if(pos == current.length)
+    {
+      free.offer(current);
+      current = null;
+    }
+  }
+
+  @Override
+  public int read()
+     throws IOException
+  {
+    if(!nextBlock())
+      return -1;
+
+    int b = current.data[pos++] & 0xFF;
+    releaseBlock();
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len)
+     throws IOException
+  {
+    if(len == 0)
+      return 0;
+
+    if(!nextBlock())
+      return -1;
+
+    int n = Math.min(len, current.length - pos);
+    System.arraycopy(current.data, pos, b, off, n);
+    pos += n;
+    releaseBlock();
+    return n;
+  }
+
+  @Override
+  public int available()
+  {
+    return current == null ? 0 : current.length - pos;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    if(closed)
+      return;
+
+    closed = true;
+    thread.interrupt();
+
+    try
+    {
+      thread.join();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    InputStream s = source;
+    (s == null ? in : s).close();
+  }
+}
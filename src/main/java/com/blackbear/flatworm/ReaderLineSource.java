@@ -0,0 +1,45 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Adapter of a <code>BufferedReader</code> to the <code>LineSource</code> interface.
+ * It holds no state other than the reader, so it can be created on the fly for each call.
+ */
+public class ReaderLineSource implements LineSource
+{
+  protected final BufferedReader in;
+
+  public ReaderLineSource(BufferedReader in)
+  {
+    this.in = in;
+  }
+
+  @Override
+  public CharSequence readLine()
+     throws IOException
+  {
+    return in.readLine();
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    in.close();
+  }
+}
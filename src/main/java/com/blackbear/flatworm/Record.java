@@ -21,10 +21,14 @@ import com.blackbear.flatworm.errors.FlatwormUnsetFieldValueException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -44,6 +48,12 @@ public class Record
   protected char identTypeFlag;
   protected RecordDefinition recordDefinition;
   protected boolean variableLineLength = false;
+  // beans of the record, by slot index of the line plans (see compile())
+  protected volatile String[] beanNames;
+  protected Class<?>[] beanClasses;
+  protected Supplier<Object>[] beanFactories;
+  // conditions on the fields, checked before parsing (see FileFormat.addFilter())
+  protected volatile RecordFilter filter;
 
   public Record()
   {
@@ -128,6 +138,7 @@ public class Record
   public void setRecordDefinition(RecordDefinition recordDefinition)
   {
     this.recordDefinition = recordDefinition;
+    beanNames = null;
   }
 
   public int getFieldIdentStart()
@@ -156,7 +167,7 @@ public class Record
    * @param ff not used at this time, for later expansion?
    * @return boolean does this line match according to the defined criteria?
    */
-  public boolean matchesLine(String line, FileFormat ff)
+  public boolean matchesLine(CharSequence line, FileFormat ff)
   {
     switch(identTypeFlag)
     {
@@ -172,7 +183,7 @@ public class Record
           for(int i = 0; i < fieldIdentMatchStrings.size(); i++)
           {
             String s = (String) fieldIdentMatchStrings.get(i);
-            if(line.regionMatches(fieldIdentStart, s, 0, fieldIdentLength))
+            if(Util.regionMatches(line, fieldIdentStart, s, 0, fieldIdentLength))
             {
               return true;
             }
@@ -224,9 +235,34 @@ public class Record
   public Map<String, Object> parseRecord(String firstLine, BufferedReader in, ConversionHelper convHelper)
      throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
      FlatwormInvalidRecordException, FlatwormCreatorException
+  {
+    return parseRecord(firstLine, new ReaderLineSource(in), convHelper);
+  }
+
+  /**
+   * Parse the record into the bean(s) <br>
+   *
+   * @param firstLine first line to be considered
+   * @param in used to retrieve additional lines of input for parsing multi-line records
+   * @param convHelper used to help convert datatypes and format strings
+   * @return HashMap collection of beans populated with file data
+   *
+   * @throws FlatwormInputLineLengthException
+   * @throws FlatwormConversionException
+   * @throws FlatwormUnsetFieldValueException
+   * @throws FlatwormInvalidRecordException
+   * @throws FlatwormCreatorException
+   */
+  public Map<String, Object> parseRecord(CharSequence firstLine, LineSource in, ConversionHelper convHelper)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
+     FlatwormInvalidRecordException, FlatwormCreatorException
   {
     Map<String, Object> beans = new HashMap<String, Object>();
 
+    String[] names = beanNames;
+    if(names != null)
+      return parseCompiled(names, firstLine, in, convHelper, beans);
+
     try
     {
       Map<String, Bean> beanHash = recordDefinition.getBeansUsed();
@@ -241,7 +277,7 @@ public class Record
       }
 
       List<Line> lines = recordDefinition.getLines();
-      String inputLine = firstLine;
+      CharSequence inputLine = firstLine;
       for(int i = 0; i < lines.size(); i++)
       {
         Line line = lines.get(i);
@@ -273,6 +309,115 @@ public class Record
     return beans;
   }
 
+  public RecordFilter getFilter()
+  {
+    return filter;
+  }
+
+  public void setFilter(RecordFilter filter)
+  {
+    this.filter = filter;
+  }
+
+  /**
+   * Restrict the parsing of the record to some fields (see Line.setProjection()).
+   * The parse plans must be compiled again (FileFormat.setProjection() does it).
+   * @param beanRefs the beanRefs of the needed fields, null for all
+   */
+  public void setProjection(Collection<String> beanRefs)
+  {
+    Set<String> set = beanRefs == null ? null : new HashSet<String>(beanRefs);
+    for(Line line : recordDefinition.getLines())
+      line.setProjection(set);
+  }
+
+  /**
+   * Compile the parse plans of the lines (see LinePlan). Called by FileFormat.compile().
+   * @param convHelper the conversion helper of the format
+   * @param generate true to create the beans and map the fields with generated accessors (see Accessors)
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void compile(ConversionHelper convHelper, boolean generate)
+  {
+    if(recordDefinition == null)
+      return;
+
+    Map<String, Bean> beanHash = recordDefinition.getBeansUsed();
+    String[] names = beanHash.keySet().toArray(new String[beanHash.size()]);
+    Class<?>[] classes = new Class<?>[names.length];
+    Supplier<Object>[] factories = new Supplier[names.length];
+    for(int i = 0; i < names.length; i++)
+    {
+      classes[i] = beanHash.get(names[i]).getBeanObjectClass();
+      if(generate)
+        factories[i] = Accessors.constructor(classes[i]);
+    }
+
+    for(Line line : recordDefinition.getLines())
+      line.compile(names, classes, convHelper, generate);
+
+    beanClasses = classes;
+    beanFactories = factories;
+    beanNames = names;
+  }
+
+  /**
+   * Parse with the line plans: the beans are created by slot index, lines without a plan usable with convHelper
+   * are parsed by Line.parseInput().
+   */
+  protected Map<String, Object> parseCompiled(String[] names, CharSequence firstLine, LineSource in,
+     ConversionHelper convHelper, Map<String, Object> beans)
+     throws FlatwormInputLineLengthException, FlatwormConversionException, FlatwormUnsetFieldValueException,
+     FlatwormInvalidRecordException, FlatwormCreatorException
+  {
+    Object[] slots = new Object[names.length];
+
+    try
+    {
+      for(int i = 0; i < names.length; i++)
+      {
+        slots[i] = beanFactories[i] != null ? beanFactories[i].get() : beanClasses[i].newInstance();
+        beans.put(names[i], slots[i]);
+      }
+
+      List<Line> lines = recordDefinition.getLines();
+      CharSequence inputLine = firstLine;
+      for(int i = 0; i < lines.size(); i++)
+      {
+        Line line = lines.get(i);
+        LinePlan plan = line.getPlan();
+        if(plan != null && plan.isUsable(convHelper))
+          plan.parse(inputLine, slots, beans, this);
+        else
+          line.parseInput(inputLine, beans, convHelper, this);
+
+        if(i + 1 < lines.size())
+          inputLine = in.readLine();
+      }
+    }
+    catch(SecurityException e)
+    {
+      log.error("Invoking method", e);
+      throw new FlatwormConversionException("Couldn't invoke Method");
+    }
+    catch(IOException e)
+    {
+      log.error("Reading input", e);
+      throw new FlatwormConversionException("Couldn't read line");
+    }
+    catch(InstantiationException e)
+    {
+      log.error("Creating bean", e);
+      throw new FlatwormConversionException("Couldn't create bean");
+    }
+    catch(IllegalAccessException e)
+    {
+      log.error("No access to class", e);
+      throw new FlatwormConversionException("Couldn't access class");
+    }
+    return beans;
+  }
+
   protected String[] getFieldNames()
   {
     List<String> names = new ArrayList<String>();
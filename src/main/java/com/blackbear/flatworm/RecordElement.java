@@ -13,6 +13,7 @@
  */
 package com.blackbear.flatworm;
 
+import com.blackbear.flatworm.errors.FlatwormConversionException;
 import com.blackbear.flatworm.errors.FlatwormUnsetFieldValueException;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,6 +33,11 @@ public class RecordElement implements LineElement
   protected String type;
   protected final Map<String, ConversionOption> conversionOptions = new HashMap<String, ConversionOption>();
   protected boolean optional = false;
+  // converter resolved by bind() and the helper it belongs to
+  protected FieldConverter<Object> converter;
+  protected volatile ConversionHelper boundTo;
+  // conversion options compiled by getOptionPipeline()
+  protected volatile OptionPipeline pipeline;
 
   public RecordElement()
   {
@@ -113,6 +119,40 @@ public class RecordElement implements LineElement
   public void setType(String type)
   {
     this.type = type;
+    boundTo = null;
+  }
+
+  /**
+   * Resolve the converter of the field (called when the format is compiled). If the type can't be bound the error
+   * is reported when the field is converted.
+   * @param convHelper the conversion helper of the format
+   */
+  public void bind(ConversionHelper convHelper)
+  {
+    pipeline = null;
+    boundTo = null;
+    converter = null;
+    if(type == null)
+      return;
+
+    try
+    {
+      converter = convHelper.getFieldConverter(type);
+      boundTo = convHelper;
+    }
+    catch(FlatwormConversionException ex)
+    {
+      // reported by the conversion
+    }
+  }
+
+  /**
+   * @param convHelper the conversion helper used
+   * @return the converter resolved by bind() or null if not bound to convHelper
+   */
+  public FieldConverter<Object> getFieldConverter(ConversionHelper convHelper)
+  {
+    return boundTo == convHelper ? converter : null;
   }
 
   public Map<String, ConversionOption> getConversionOptions()
@@ -124,16 +164,32 @@ public class RecordElement implements LineElement
   {
     this.conversionOptions.clear();
     this.conversionOptions.putAll(conversionOptions);
+    pipeline = null;
   }
 
   public void addConversionOption(String name, ConversionOption option)
   {
     conversionOptions.put(name, option);
+    pipeline = null;
   }
 
   public void addConversionOption(String name, String value)
   {
     conversionOptions.put(name, new ConversionOption(name, value));
+    pipeline = null;
+  }
+
+  /**
+   * The transformations of the conversion options, compiled on first use (see OptionPipeline). The pipeline is
+   * compiled again by FileFormat.compile(), i.e. after changing the options map directly.
+   * @return the pipeline
+   */
+  public OptionPipeline getOptionPipeline()
+  {
+    OptionPipeline p = pipeline;
+    if(p == null)
+      pipeline = p = OptionPipeline.compile(conversionOptions);
+    return p;
   }
 
   @Override
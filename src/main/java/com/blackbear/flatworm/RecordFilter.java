@@ -0,0 +1,86 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+/**
+ * The conditions on the fields of a record (see FieldPredicate): a record is parsed only if all of them are true.
+ * The fields are resolved to their RecordView index when the condition is added, and evaluated on the view of the
+ * record before any conversion or bean creation.
+ * <p>
+ * A filter is immutable: and() returns a new filter, so a format can be changed while other threads use it.
+ * </p>
+ */
+public class RecordFilter
+{
+  protected final Record record;
+  protected final RecordView.Layout layout;
+  protected final int[] fields;
+  protected final FieldPredicate[] predicates;
+
+  public RecordFilter(Record record)
+  {
+    this(record, new RecordView.Layout(record), new int[0], new FieldPredicate[0]);
+  }
+
+  protected RecordFilter(Record record, RecordView.Layout layout, int[] fields, FieldPredicate[] predicates)
+  {
+    this.record = record;
+    this.layout = layout;
+    this.fields = fields;
+    this.predicates = predicates;
+  }
+
+  /**
+   * @param beanRef the field tested (i.e. "det.status")
+   * @param predicate the condition on the field
+   * @return a filter with the conditions of this one plus the new condition
+   */
+  public RecordFilter and(String beanRef, FieldPredicate predicate)
+  {
+    Integer i = layout.index.get(beanRef);
+    if(i == null)
+      throw new IllegalArgumentException("Field " + beanRef + " not in record " + record.getName()
+         + " (fields after a segment can't be filtered)");
+
+    int n = fields.length;
+    int[] f = new int[n + 1];
+    FieldPredicate[] p = new FieldPredicate[n + 1];
+    System.arraycopy(fields, 0, f, 0, n);
+    System.arraycopy(predicates, 0, p, 0, n);
+    f[n] = i;
+    p[n] = predicate;
+
+    return new RecordFilter(record, layout, f, p);
+  }
+
+  public Record getRecord()
+  {
+    return record;
+  }
+
+  /**
+   * @param view a view loaded with a record of this filter
+   * @return true if the record must be parsed
+   */
+  public boolean accept(RecordView view)
+  {
+    for(int i = 0; i < fields.length; i++)
+    {
+      CharSequence value = view.getTrimmedChars(fields[i]);
+      if(value == null || !predicates[i].test(value))
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,262 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormException;
+import com.blackbear.flatworm.errors.FlatwormUncheckedException;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Random access to the records of a file through the sidecar index built by <code>RecordIndexer</code>.
+ * <p>
+ * The offset arrays are memory mapped, so opening the index doesn't read it; the records are parsed jumping
+ * directly to their offsets in the (memory mapped) data file.
+ * The index is rejected if the data file has changed since it was built.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> an instance is not thread safe.
+ * </p>
+ */
+public class RecordIndex implements Closeable
+{
+  protected final FileFormat ff;
+  protected final MappedLineSource in;
+  protected final ParseContext ctx;
+  protected final LongArray all;
+  protected final Map<String, LongArray> byName = new LinkedHashMap<String, LongArray>();
+
+  /**
+   * Open the default index of a data file.
+   * @param ff the file format
+   * @param dataFile full path of the data file
+   * @throws IOException if the index doesn't exist, is invalid or out of date
+   */
+  public RecordIndex(FileFormat ff, String dataFile)
+     throws IOException
+  {
+    this(ff, dataFile, RecordIndexer.getIndexFile(dataFile));
+  }
+
+  /**
+   * Open an index.
+   * @param ff the file format
+   * @param dataFile full path of the data file
+   * @param indexFile full path of the index file
+   * @throws IOException if the index doesn't exist, is invalid or out of date
+   */
+  public RecordIndex(FileFormat ff, String dataFile, String indexFile)
+     throws IOException
+  {
+    this.ff = ff;
+    this.ctx = ff.newContext();
+
+    try (FileChannel channel = new RandomAccessFile(indexFile, "r").getChannel())
+    {
+      ByteBuffer start = ByteBuffer.allocate(12);
+      channel.read(start, 0);
+      start.flip();
+      if(start.remaining() < 12 || start.getInt() != RecordIndexer.MAGIC)
+        throw new IOException("Invalid index file " + indexFile);
+      if(start.getInt() != RecordIndexer.VERSION)
+        throw new IOException("Unsupported index version in " + indexFile);
+
+      ByteBuffer header = ByteBuffer.allocate(start.getInt());
+      channel.read(header, 12);
+      DataInputStream h = new DataInputStream(new ByteArrayInputStream(header.array()));
+
+      File data = new File(dataFile);
+      if(h.readLong() != data.length() || h.readLong() != data.lastModified())
+        throw new IOException("Index " + indexFile + " is out of date");
+
+      long pos = 12 + header.capacity();
+      long total = h.readLong();
+      all = new LongArray(channel, pos, total);
+      pos += total * 8;
+
+      int numTypes = h.readInt();
+      for(int i = 0; i < numTypes; i++)
+      {
+        String name = h.readUTF();
+        long count = h.readLong();
+        byName.put(name, new LongArray(channel, pos, count));
+        pos += count * 8;
+      }
+    }
+
+    try
+    {
+      in = new MappedLineSource(dataFile, ff.getEncoding());
+    }
+    catch(IllegalArgumentException ex)
+    {
+      throw new IOException(ex.getMessage(), ex);
+    }
+  }
+
+  public long getRecordCount()
+  {
+    return all.size;
+  }
+
+  /**
+   * Number of records of a type.
+   * @param recordName the record name as specified in the configuration file
+   * @return number of records (0 if the type is not in the file)
+   */
+  public long getRecordCount(String recordName)
+  {
+    LongArray a = byName.get(recordName);
+    return a == null ? 0 : a.size;
+  }
+
+  public Set<String> getRecordNames()
+  {
+    return Collections.unmodifiableSet(byName.keySet());
+  }
+
+  /**
+   * Offset of a record.
+   * @param ordinal position of the record in the file (0 based)
+   * @return offset in bytes
+   */
+  public long getOffset(long ordinal)
+  {
+    return all.get(ordinal);
+  }
+
+  /**
+   * Offset of a record of a type.
+   * @param recordName the record name
+   * @param i position of the record between the records of the type (0 based)
+   * @return offset in bytes
+   */
+  public long getOffset(String recordName, long i)
+  {
+    LongArray a = byName.get(recordName);
+    if(a == null)
+      throw new IndexOutOfBoundsException("No records of type " + recordName);
+
+    return a.get(i);
+  }
+
+  /**
+   * Parse the record at an offset.
+   * @param offset offset in bytes of the first line of the record
+   * @return the record or null if offset is at the end of file
+   * @throws IOException
+   * @throws FlatwormException
+   */
+  public MatchedRecord readRecordAt(long offset)
+     throws IOException, FlatwormException
+  {
+    in.seek(offset);
+    return ff.getNextRecord(in, ctx);
+  }
+
+  /**
+   * Parse a record.
+   * @param ordinal position of the record in the file (0 based)
+   * @return the record
+   * @throws IOException
+   * @throws FlatwormException
+   */
+  public MatchedRecord readRecord(long ordinal)
+     throws IOException, FlatwormException
+  {
+    return readRecordAt(all.get(ordinal));
+  }
+
+  /**
+   * Lazy stream of the records of a type, in file order.
+   * @param recordName the record name
+   * @return stream of records; parse errors are thrown as FlatwormUncheckedException
+   */
+  public Stream<MatchedRecord> readRecords(String recordName)
+  {
+    LongArray a = byName.get(recordName);
+    if(a == null)
+      return Stream.empty();
+
+    return LongStream.range(0, a.size).mapToObj((i) ->
+    {
+      try
+      {
+        return readRecordAt(a.get(i));
+      }
+      catch(FlatwormException ex)
+      {
+        throw new FlatwormUncheckedException(ex, ctx.getLastLine());
+      }
+      catch(IOException ex)
+      {
+        throw new UncheckedIOException(ex);
+      }
+    });
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    in.close();
+  }
+
+  /**
+   * Memory mapped array of longs (mapped in chunks: a single mapping can not exceed 2 GB).
+   */
+  protected static class LongArray
+  {
+    protected static final int CHUNK_SHIFT = 27;
+    protected static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    protected final long size;
+    protected final LongBuffer[] chunks;
+
+    public LongArray(FileChannel channel, long offset, long size)
+       throws IOException
+    {
+      this.size = size;
+      this.chunks = new LongBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+      for(int i = 0; i < chunks.length; i++)
+      {
+        long first = (long) i << CHUNK_SHIFT;
+        long count = Math.min(size - first, 1L << CHUNK_SHIFT);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * 8, count * 8).asLongBuffer();
+      }
+    }
+
+    public long get(long i)
+    {
+      if(i < 0 || i >= size)
+        throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+
+      return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+    }
+  }
+}
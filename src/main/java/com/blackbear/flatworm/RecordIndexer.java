@@ -0,0 +1,232 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build a sidecar index of the record start offsets of a file, to be read with <code>RecordIndex</code>.
+ * <p>
+ * The file is scanned once: only the first line of each record is matched (as in
+ * <code>FileFormat.findMatchingRecord</code>) and its continuation lines are skipped, no field is parsed.
+ * Unmatched lines are not indexed.
+ * </p>
+ * <p>
+ * Index layout (big endian):
+ * <pre>
+ * int magic, int version, int header length
+ * header: long data size, long data last modified, long records, int record types,
+ *         for each type: UTF name, long records
+ * long[records] offsets of all the records in file order
+ * for each type: long[records of the type] offsets of the records of the type
+ * </pre>
+ * </p>
+ */
+public class RecordIndexer
+{
+  public static final String EXTENSION = ".fwidx";
+  public static final int MAGIC = 0x46574958;
+  public static final int VERSION = 1;
+
+  protected final FileFormat ff;
+
+  public RecordIndexer(FileFormat ff)
+  {
+    this.ff = ff;
+  }
+
+  /**
+   * Default name of the index of a data file.
+   * @param dataFile full path of the data file
+   * @return full path of the index file
+   */
+  public static String getIndexFile(String dataFile)
+  {
+    return dataFile + EXTENSION;
+  }
+
+  /**
+   * Index a file in its default index file.
+   * @param dataFile full path of the data file
+   * @return number of records indexed
+   * @throws IOException
+   */
+  public long index(String dataFile)
+     throws IOException
+  {
+    return index(dataFile, getIndexFile(dataFile));
+  }
+
+  /**
+   * Index a file.
+   * @param dataFile full path of the data file
+   * @param indexFile full path of the index file
+   * @return number of records indexed
+   * @throws IOException
+   */
+  public long index(String dataFile, String indexFile)
+     throws IOException
+  {
+    File data = new File(dataFile);
+    long size = data.length();
+    long modified = data.lastModified();
+
+    Map<String, Integer> typeIds = new HashMap<String, Integer>();
+    List<String> names = new ArrayList<String>();
+    List<LongList> offsets = new ArrayList<LongList>();
+    ShortList types = new ShortList();
+
+    try (MappedLineSource in = openSource(dataFile))
+    {
+      while(true)
+      {
+        long pos = in.getPosition();
+        CharSequence line = in.readLine();
+        if(line == null)
+          break;
+
+        if(line.length() == 0)
+          continue;
+
+        Record rd = ff.findMatchingRecord(line);
+        if(rd == null)
+          continue;
+
+        Integer id = typeIds.get(rd.getName());
+        if(id == null)
+        {
+          if(names.size() > Short.MAX_VALUE)
+            throw new IOException("Too many record types");
+
+          id = names.size();
+          typeIds.put(rd.getName(), id);
+          names.add(rd.getName());
+          offsets.add(new LongList());
+        }
+
+        offsets.get(id).add(pos);
+        types.add(id.shortValue());
+
+        for(int i = 1; i < rd.getRecordDefinition().getLines().size(); i++)
+          in.readLine();
+      }
+    }
+
+    File tmp = new File(indexFile + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024)))
+    {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream h = new DataOutputStream(header);
+      h.writeLong(size);
+      h.writeLong(modified);
+      h.writeLong(types.size);
+      h.writeInt(names.size());
+      for(int i = 0; i < names.size(); i++)
+      {
+        h.writeUTF(names.get(i));
+        h.writeLong(offsets.get(i).size);
+      }
+      h.flush();
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(header.size());
+      header.writeTo(out);
+
+      // all the records: merge the offsets of the types in file order
+      int[] cursor = new int[names.size()];
+      for(int i = 0; i < types.size; i++)
+      {
+        int id = types.data[i];
+        out.writeLong(offsets.get(id).data[cursor[id]++]);
+      }
+
+      for(LongList l : offsets)
+      {
+        for(int i = 0; i < l.size; i++)
+          out.writeLong(l.data[i]);
+      }
+    }
+
+    try
+    {
+      Files.move(tmp.toPath(), new File(indexFile).toPath(), StandardCopyOption.REPLACE_EXISTING,
+         StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(AtomicMoveNotSupportedException ex)
+    {
+      Files.move(tmp.toPath(), new File(indexFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    return types.size;
+  }
+
+  /**
+   * Open the data file; the encoding must be ASCII compatible.
+   * @param dataFile full path of the data file
+   * @return the line source
+   * @throws IOException
+   */
+  protected MappedLineSource openSource(String dataFile)
+     throws IOException
+  {
+    try
+    {
+      return new MappedLineSource(dataFile, ff.getEncoding());
+    }
+    catch(IllegalArgumentException ex)
+    {
+      throw new IOException(ex.getMessage(), ex);
+    }
+  }
+
+  protected static class LongList
+  {
+    protected long[] data = new long[1024];
+    protected int size = 0;
+
+    public void add(long value)
+    {
+      if(size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+  }
+
+  protected static class ShortList
+  {
+    protected short[] data = new short[1024];
+    protected int size = 0;
+
+    public void add(short value)
+    {
+      if(size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+  }
+}
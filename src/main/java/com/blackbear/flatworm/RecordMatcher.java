@@ -0,0 +1,375 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Record identification compiled from the records of a <code>FileFormat</code>.
+ * <p>
+ * The match strings of the 'F' records are grouped by identifier position (start and length): each group is a
+ * hash table from the identifier to the first record declaring it, looked up directly on the line characters.
+ * When the identifiers have different positions the groups are replaced by an <code>IdentAutomaton</code>, that
+ * reads each identifying char once whatever the number of groups.
+ * The 'L' records are compiled in a table from the line length to the first matching record.
+ * The result is always the same of the linear scan in declaration order (the first record that matches).
+ * </p>
+ * <p>
+ * The matcher is immutable: it must be rebuilt if the records are changed (FileFormat does it in addRecord).
+ * </p>
+ */
+public class RecordMatcher
+{
+  private static final Log log = LogFactory.getLog(RecordMatcher.class);
+  // the length table is not built for huge lengths
+  public static final int MAX_LENGTH_TABLE = 64 * 1024;
+  protected static final int NONE = Integer.MAX_VALUE;
+
+  protected final Record[] records;
+  protected final IdentGroup[] groups;
+  protected final IdentAutomaton automaton;
+  protected final int[] byLength;
+  protected final int[][] lengthRanges;
+  protected final int always;
+
+  /**
+   * Identifiers at the same position: open addressing hash table from the identifier to the record index.
+   */
+  protected static class IdentGroup
+  {
+    protected final int start;
+    protected final int length;
+    protected int first = NONE;
+    protected String[] keys = new String[8];
+    protected int[] values = new int[8];
+    protected int size = 0;
+
+    public IdentGroup(int start, int length)
+    {
+      this.start = start;
+      this.length = length;
+    }
+
+    /**
+     * Add an identifier; if already present the lower index is kept.
+     */
+    public void put(String key, int index)
+    {
+      first = Math.min(first, index);
+
+      if((size + 1) * 2 > keys.length)
+        rehash(keys.length * 2);
+
+      int mask = keys.length - 1;
+      for(int i = hash(key, 0, key.length()) & mask;; i = (i + 1) & mask)
+      {
+        if(keys[i] == null)
+        {
+          keys[i] = key;
+          values[i] = index;
+          size++;
+          return;
+        }
+        if(keys[i].equals(key))
+        {
+          values[i] = Math.min(values[i], index);
+          return;
+        }
+      }
+    }
+
+    protected void rehash(int capacity)
+    {
+      String[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new String[capacity];
+      values = new int[capacity];
+      size = 0;
+      for(int i = 0; i < oldKeys.length; i++)
+      {
+        if(oldKeys[i] != null)
+          put(oldKeys[i], oldValues[i]);
+      }
+    }
+
+    /**
+     * Look up the identifier at the group position of the line.
+     * @return index of the record or NONE
+     */
+    public int get(CharSequence line)
+    {
+      if(line.length() < start + length)
+        return NONE;
+
+      int mask = keys.length - 1;
+      for(int i = hash(line, start, length) & mask;; i = (i + 1) & mask)
+      {
+        String k = keys[i];
+        if(k == null)
+          return NONE;
+        if(Util.regionMatches(line, start, k, 0, length))
+          return values[i];
+      }
+    }
+
+    protected static int hash(CharSequence cs, int start, int length)
+    {
+      int h = 0;
+      for(int i = 0; i < length; i++)
+        h = 31 * h + cs.charAt(start + i);
+      return h ^ (h >>> 16);
+    }
+  }
+
+  /**
+   * Compile the records.
+   * @param recordOrder the records in declaration order
+   */
+  public RecordMatcher(List<Record> recordOrder)
+  {
+    records = recordOrder.toArray(new Record[recordOrder.size()]);
+
+    Map<Long, IdentGroup> groupMap = new LinkedHashMap<Long, IdentGroup>();
+    List<int[]> ranges = new ArrayList<int[]>();
+    int alwaysIndex = NONE;
+    int maxLength = -1;
+
+    for(int i = 0; i < records.length; i++)
+    {
+      Record r = records[i];
+      switch(r.getIdentTypeFlag())
+      {
+        case 'F':
+          if(r.getFieldIdentStart() < 0)
+            break;
+
+          int start = r.getFieldIdentStart();
+          int length = r.getFieldIdentLength();
+          Long key = ((long) start << 32) | (length & 0xFFFFFFFFL);
+          IdentGroup g = groupMap.get(key);
+          if(g == null)
+            groupMap.put(key, g = new IdentGroup(start, length));
+
+          for(String s : r.getFieldIdentMatchStrings())
+          {
+            // only the first 'length' chars are compared; shorter strings never match
+            if(s.length() >= length)
+              g.put(s.substring(0, length), i);
+          }
+          break;
+
+        case 'L':
+          if(r.getLengthIdentMin() <= r.getLengthIdentMax() && r.getLengthIdentMax() >= 0)
+          {
+            ranges.add(new int[]
+            {
+              Math.max(0, r.getLengthIdentMin()), r.getLengthIdentMax(), i
+            });
+            maxLength = Math.max(maxLength, r.getLengthIdentMax());
+          }
+          break;
+
+        case 'I':
+          break;
+
+        default:
+          // no identification: matches any line
+          alwaysIndex = Math.min(alwaysIndex, i);
+          break;
+      }
+    }
+
+    groups = groupMap.values().toArray(new IdentGroup[groupMap.size()]);
+    // groups with lower records first, so the scan can stop early
+    Arrays.sort(groups, Comparator.comparingInt((IdentGroup g) -> g.first));
+    automaton = groups.length > 1 ? IdentAutomaton.build(records) : null;
+    if(groups.length > 1 && automaton == null)
+      log.debug("Too many identifier states: using the lookup by position.");
+
+    lengthRanges = ranges.toArray(new int[ranges.size()][]);
+    if(maxLength >= 0 && maxLength < MAX_LENGTH_TABLE)
+    {
+      byLength = new int[maxLength + 1];
+      Arrays.fill(byLength, NONE);
+      for(int[] range : lengthRanges)
+      {
+        for(int len = range[0]; len <= range[1]; len++)
+          byLength[len] = Math.min(byLength[len], range[2]);
+      }
+    }
+    else
+    {
+      byLength = null;
+    }
+
+    always = alwaysIndex;
+  }
+
+  /**
+   * Find the first record (in declaration order) matching the line.
+   * @param line the first line of a record
+   * @return the record or null
+   */
+  public Record match(CharSequence line)
+  {
+    int best = always;
+
+    if(automaton != null)
+    {
+      best = Math.min(best, automaton.match(line));
+    }
+    else
+    {
+      for(IdentGroup g : groups)
+      {
+        if(g.first >= best)
+          break;
+
+        best = Math.min(best, g.get(line));
+      }
+    }
+
+    best = Math.min(best, matchLength(line.length()));
+
+    return best == NONE ? null : records[best];
+  }
+
+  /**
+   * Log a warning for each pair of records that can match the same line: only the first declared is used for it.
+   */
+  public void warnOverlaps()
+  {
+    for(int i = 0; i < records.length; i++)
+    {
+      for(int j = i + 1; j < records.length; j++)
+      {
+        if(canOverlap(records[i], records[j]))
+          log.warn("Records '" + records[i].getName() + "' and '" + records[j].getName()
+             + "' can match the same line: '" + records[i].getName() + "' is used.");
+      }
+    }
+  }
+
+  /**
+   * Check if two records can match the same line.
+   * @param a first record
+   * @param b second record
+   * @return true if there is at least a line matched by both
+   */
+  public static boolean canOverlap(Record a, Record b)
+  {
+    if(a.getIdentTypeFlag() == 'F' && b.getIdentTypeFlag() == 'F')
+    {
+      for(String ka : identKeys(a))
+      {
+        for(String kb : identKeys(b))
+        {
+          if(keysOverlap(a.getFieldIdentStart(), ka, b.getFieldIdentStart(), kb))
+            return true;
+        }
+      }
+      return false;
+    }
+
+    if(a.getIdentTypeFlag() == 'F' && b.getIdentTypeFlag() == 'L')
+      return minLength(a) <= b.getLengthIdentMax() && canMatch(b);
+
+    if(a.getIdentTypeFlag() == 'L' && b.getIdentTypeFlag() == 'F')
+      return canOverlap(b, a);
+
+    if(a.getIdentTypeFlag() == 'L' && b.getIdentTypeFlag() == 'L')
+      return Math.max(0, Math.max(a.getLengthIdentMin(), b.getLengthIdentMin()))
+         <= Math.min(a.getLengthIdentMax(), b.getLengthIdentMax());
+
+    // no identification (matches any line) or 'I' (never matches)
+    return canMatch(a) && canMatch(b);
+  }
+
+  /**
+   * @return false if the record can never match a line
+   */
+  protected static boolean canMatch(Record r)
+  {
+    switch(r.getIdentTypeFlag())
+    {
+      case 'F':
+        return !identKeys(r).isEmpty();
+      case 'L':
+        return Math.max(0, r.getLengthIdentMin()) <= r.getLengthIdentMax();
+      case 'I':
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * The effective identifiers of an 'F' record (the first length chars of the match strings).
+   */
+  protected static List<String> identKeys(Record r)
+  {
+    List<String> keys = new ArrayList<String>();
+    if(r.getFieldIdentStart() < 0)
+      return keys;
+
+    int length = r.getFieldIdentLength();
+    for(String s : r.getFieldIdentMatchStrings())
+    {
+      if(s.length() >= length)
+        keys.add(s.substring(0, length));
+    }
+    return keys;
+  }
+
+  protected static int minLength(Record r)
+  {
+    int min = Integer.MAX_VALUE;
+    if(!identKeys(r).isEmpty())
+      min = r.getFieldIdentStart() + r.getFieldIdentLength();
+    return min;
+  }
+
+  protected static boolean keysOverlap(int startA, String keyA, int startB, String keyB)
+  {
+    int from = Math.max(startA, startB);
+    int to = Math.min(startA + keyA.length(), startB + keyB.length());
+    for(int p = from; p < to; p++)
+    {
+      if(keyA.charAt(p - startA) != keyB.charAt(p - startB))
+        return false;
+    }
+    return true;
+  }
+
+  protected int matchLength(int len)
+  {
+    if(byLength != null)
+      return len < byLength.length ? byLength[len] : NONE;
+
+    int best = NONE;
+    for(int[] range : lengthRanges)
+    {
+      if(len >= range[0] && len <= range[1])
+        best = Math.min(best, range[2]);
+    }
+    return best;
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormException;
+import com.blackbear.flatworm.errors.FlatwormInvalidRecordException;
+import com.blackbear.flatworm.errors.FlatwormUncheckedException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Lazy <code>Spliterator</code> of the records read from a <code>LineSource</code>.
+ * <p>
+ * Records are parsed only when requested, so short-circuiting operations (findFirst, limit, anyMatch, ...) stop
+ * reading the input as soon as possible. trySplit() reads the lines of a batch of records (only the first line of
+ * each record is matched, to know how many continuation lines it has) and returns a spliterator that parses them,
+ * so in parallel streams the conversion and bean mapping run on several threads.
+ * </p>
+ * <p>
+ * Parse errors are thrown as <code>FlatwormUncheckedException</code>.
+ * </p>
+ */
+public class RecordSpliterator implements Spliterator<MatchedRecord>
+{
+  public static final int BATCH_UNIT = 1 << 10;
+  public static final int MAX_BATCH = 1 << 25;
+
+  protected final FileFormat ff;
+  protected final LineSource in;
+  protected final ParseContext ctx;
+  protected int batch = 0;
+
+  public RecordSpliterator(FileFormat ff, LineSource in)
+  {
+    this.ff = ff;
+    this.in = in;
+    this.ctx = ff.newContext();
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super MatchedRecord> action)
+  {
+    MatchedRecord mr;
+
+    try
+    {
+      mr = ff.getNextRecord(in, ctx);
+    }
+    catch(FlatwormException ex)
+    {
+      throw new FlatwormUncheckedException(ex, ctx.getLastLine());
+    }
+
+    if(mr == null)
+      return false;
+
+    action.accept(mr);
+    return true;
+  }
+
+  @Override
+  public Spliterator<MatchedRecord> trySplit()
+  {
+    int n = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+    List<RawRecord> raw = new ArrayList<RawRecord>();
+
+    try
+    {
+      CharSequence line;
+      while(raw.size() < n && (line = in.readLine()) != null)
+      {
+        if(line.length() == 0)
+          continue;
+
+        Record rd = ff.findMatchingRecord(line);
+        int numLines = rd == null ? 1 : rd.getRecordDefinition().getLines().size();
+        String[] lines = new String[numLines];
+        lines[0] = line.toString();
+        for(int i = 1; i < numLines; i++)
+        {
+          CharSequence cont = in.readLine();
+          lines[i] = cont == null ? null : cont.toString();
+        }
+
+        raw.add(new RawRecord(rd, lines));
+      }
+    }
+    catch(IOException ex)
+    {
+      throw new UncheckedIOException(ex);
+    }
+
+    if(raw.isEmpty())
+      return null;
+
+    batch = raw.size();
+    return new BatchSpliterator(raw.toArray(new RawRecord[raw.size()]), 0, raw.size());
+  }
+
+  @Override
+  public long estimateSize()
+  {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public int characteristics()
+  {
+    return ORDERED | NONNULL;
+  }
+
+  /**
+   * The lines of a record, not parsed yet.
+   */
+  protected static class RawRecord
+  {
+    protected final Record record;
+    protected final String[] lines;
+
+    public RawRecord(Record record, String[] lines)
+    {
+      this.record = record;
+      this.lines = lines;
+    }
+  }
+
+  /**
+   * Supplies the continuation lines of a RawRecord to FileFormat.parseRecord().
+   */
+  protected static class ArrayLineSource implements LineSource
+  {
+    protected final String[] lines;
+    protected int next;
+
+    public ArrayLineSource(String[] lines, int next)
+    {
+      this.lines = lines;
+      this.next = next;
+    }
+
+    @Override
+    public CharSequence readLine()
+    {
+      return next < lines.length ? lines[next++] : null;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Parses a batch of records already read from the input.
+   */
+  protected class BatchSpliterator implements Spliterator<MatchedRecord>
+  {
+    protected final RawRecord[] records;
+    protected int index;
+    protected final int fence;
+    protected final boolean filtered;
+    protected final ParseContext batchCtx;
+
+    public BatchSpliterator(RawRecord[] records, int origin, int fence)
+    {
+      this.records = records;
+      this.index = origin;
+      this.fence = fence;
+      this.filtered = ff.hasFilters();
+      this.batchCtx = ff.newContext();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MatchedRecord> action)
+    {
+      while(index < fence)
+      {
+        RawRecord raw = records[index];
+        records[index++] = null;
+
+        try
+        {
+          if(raw.record == null)
+            throw new FlatwormInvalidRecordException("Unmatched line in input file");
+
+          // records rejected by the filters are skipped
+          Map<String, Object> beans = ff.parseRecord(raw.record, raw.lines[0], new ArrayLineSource(raw.lines, 1),
+             batchCtx);
+          if(beans == null)
+            continue;
+
+          action.accept(new MatchedRecord(raw.record.getName(), beans));
+          return true;
+        }
+        catch(FlatwormException ex)
+        {
+          throw new FlatwormUncheckedException(ex, raw.lines[0]);
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public Spliterator<MatchedRecord> trySplit()
+    {
+      int mid = (index + fence) >>> 1;
+      if(mid <= index)
+        return null;
+
+      BatchSpliterator prefix = new BatchSpliterator(records, index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+      return fence - index;
+    }
+
+    @Override
+    public int characteristics()
+    {
+      // with filters the size is only an upper bound
+      return filtered ? ORDERED | NONNULL : ORDERED | NONNULL | SIZED | SUBSIZED;
+    }
+  }
+}
@@ -0,0 +1,535 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import com.blackbear.flatworm.errors.FlatwormConversionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flyweight cursor over the lines of the current record.
+ * <p>
+ * Fields are read on demand, directly from the input line, with the positions and the conversion options of their
+ * RecordElement: no bean, map of beans or MatchedRecord is created. Fields are addressed by beanRef or by index (the
+ * RecordElements of the record in declaration order; the fields inside delimited segments are not available).
+ * </p>
+ * <p>
+ * The view is reused for each record, and <code>getChars()</code> returns a window reused for the next field: they
+ * must not be kept after the callback. A view is not thread safe.
+ * </p>
+ */
+public class RecordView
+{
+  protected final FileFormat ff;
+  protected final ConversionHelper convHelper;
+  protected final Map<Record, Layout> layouts = new IdentityHashMap<Record, Layout>();
+  protected final FieldView field = new FieldView();
+
+  protected Record record;
+  protected Layout layout;
+  protected CharSequence[] lines = new CharSequence[1];
+  protected StringBuilder[] copies = new StringBuilder[0];
+  protected int lineCount;
+  // bounds of the fields of the current record (start -1 if missing), by line resolved on demand
+  protected int[] bounds = new int[64];
+  protected boolean[] resolved = new boolean[1];
+  protected DelimitedTokenizer tokenizer;
+
+  /**
+   * Position of the fields of a record.
+   */
+  protected static class Layout
+  {
+    protected final Record record;
+    protected final RecordElement[] elements;
+    protected final int[] lineOf;
+    // index of the first field of each line (plus the total)
+    protected final int[] firstOfLine;
+    protected final Line[] lines;
+    protected final Map<String, Integer> index = new HashMap<String, Integer>();
+    // implied decimals divisor (1 if not implied, NaN if decimal-places is not a number)
+    protected final double[] divisor;
+
+    protected Layout(Record record)
+    {
+      this.record = record;
+      List<RecordElement> fields = new ArrayList<RecordElement>();
+      List<Integer> lineIdx = new ArrayList<Integer>();
+      List<Line> recLines = record.getRecordDefinition().getLines();
+      lines = recLines.toArray(new Line[recLines.size()]);
+      firstOfLine = new int[lines.length + 1];
+
+      for(int l = 0; l < lines.length; l++)
+      {
+        firstOfLine[l] = fields.size();
+        for(LineElement le : lines[l].getElements())
+        {
+          // the positions of the fields after a segment depend on the data
+          if(!(le instanceof RecordElement))
+            break;
+
+          fields.add((RecordElement) le);
+          lineIdx.add(l);
+        }
+      }
+      firstOfLine[lines.length] = fields.size();
+
+      elements = fields.toArray(new RecordElement[fields.size()]);
+      lineOf = new int[elements.length];
+      divisor = new double[elements.length];
+      for(int i = 0; i < elements.length; i++)
+      {
+        lineOf[i] = lineIdx.get(i);
+        if(elements[i].getBeanRef() != null && !index.containsKey(elements[i].getBeanRef()))
+          index.put(elements[i].getBeanRef(), i);
+
+        Map<String, ConversionOption> options = elements[i].getConversionOptions();
+        String places = Util.getValue(options, "decimal-places");
+        divisor[i] = "true".equals(Util.getValue(options, "decimal-implied")) && places != null
+                        ? divisor(places) : 1D;
+      }
+    }
+
+    /**
+     * @param places value of the decimal-places option
+     * @return the divisor, NaN if places is not a number (reported as a conversion error of the field)
+     */
+    protected static double divisor(String places)
+    {
+      try
+      {
+        return Math.pow(10D, Integer.parseInt(places));
+      }
+      catch(NumberFormatException ex)
+      {
+        return Double.NaN;
+      }
+    }
+  }
+
+  public RecordView(FileFormat ff)
+  {
+    this.ff = ff;
+    this.convHelper = ff.getConvertionHelper();
+  }
+
+  /**
+   * Move the view to a record. The continuation lines of multi-line records are read from in.
+   * @param rd the record matched by firstLine
+   * @param firstLine first line of the record
+   * @param in source of the continuation lines
+   * @throws java.io.IOException
+   */
+  public void load(Record rd, CharSequence firstLine, LineSource in)
+     throws java.io.IOException
+  {
+    if(rd != record)
+    {
+      record = rd;
+      // the filter of the record already has its layout
+      RecordFilter filter = rd.getFilter();
+      layout = filter != null ? filter.layout : layouts.get(rd);
+      if(layout == null)
+        layouts.put(rd, layout = new Layout(rd));
+
+      if(bounds.length < layout.elements.length * 2)
+        bounds = new int[layout.elements.length * 2];
+      if(resolved.length < layout.lines.length)
+        resolved = new boolean[layout.lines.length];
+      if(lines.length < layout.lines.length)
+        lines = new CharSequence[layout.lines.length];
+    }
+
+    lineCount = layout.lines.length;
+    for(int l = 0; l < lineCount; l++)
+      resolved[l] = false;
+
+    if(lineCount == 1)
+    {
+      lines[0] = firstLine;
+      return;
+    }
+
+    // the line sources reuse their buffers: lines are copied before reading the next one
+    if(copies.length < lineCount)
+    {
+      StringBuilder[] tmp = new StringBuilder[lineCount];
+      System.arraycopy(copies, 0, tmp, 0, copies.length);
+      for(int l = copies.length; l < lineCount; l++)
+        tmp[l] = new StringBuilder(256);
+      copies = tmp;
+    }
+
+    CharSequence line = firstLine;
+    for(int l = 0; l < lineCount; l++)
+    {
+      if(l > 0)
+        line = in.readLine();
+
+      if(line == null)
+      {
+        lines[l] = null;
+        continue;
+      }
+
+      copies[l].setLength(0);
+      copies[l].append(line);
+      lines[l] = copies[l];
+    }
+  }
+
+  public Record getRecord()
+  {
+    return record;
+  }
+
+  public String getRecordName()
+  {
+    return record.getName();
+  }
+
+  public int getLineCount()
+  {
+    return lineCount;
+  }
+
+  /**
+   * @param l index of the line in the record
+   * @return the line (null if the input ended before it)
+   */
+  public CharSequence getLine(int l)
+  {
+    return lines[l];
+  }
+
+  /**
+   * @return a source of the continuation lines, to parse the record with <code>Record.parseRecord()</code>
+   */
+  public LineSource getContinuationLines()
+  {
+    return new LineSource()
+    {
+      int next = 1;
+
+      @Override
+      public CharSequence readLine()
+      {
+        return next < lineCount ? lines[next++] : null;
+      }
+
+      @Override
+      public void close()
+      {
+      }
+    };
+  }
+
+  public int getFieldCount()
+  {
+    return layout.elements.length;
+  }
+
+  public String getFieldName(int i)
+  {
+    return layout.elements[i].getBeanRef();
+  }
+
+  /**
+   * @param beanRef the beanRef of the field
+   * @return index of the field or -1
+   */
+  public int getFieldIndex(String beanRef)
+  {
+    Integer i = layout.index.get(beanRef);
+    return i == null ? -1 : i;
+  }
+
+  protected int indexOf(String beanRef)
+  {
+    Integer i = layout.index.get(beanRef);
+    if(i == null)
+      throw new IllegalArgumentException("Field " + beanRef + " not in record " + record.getName());
+    return i;
+  }
+
+  /**
+   * @param i index of the field
+   * @return false if the field is beyond the end of the line (optional fields, variable length records)
+   */
+  public boolean isPresent(int i)
+  {
+    resolve(layout.lineOf[i]);
+    return bounds[i * 2] >= 0;
+  }
+
+  /**
+   * The field with its conversion options applied (trim, justify, ...).
+   * @param i index of the field
+   * @return a window reused for the next field, or null if the field is missing
+   */
+  public CharSequence getChars(int i)
+  {
+    if(!isPresent(i))
+      return null;
+
+    FieldView f = rawField(i);
+    convHelper.transformChars(f, layout.elements[i]);
+    return f;
+  }
+
+  public CharSequence getChars(String beanRef)
+  {
+    return getChars(indexOf(beanRef));
+  }
+
+  /**
+   * The field with its conversion options applied and without leading and trailing blanks: the text tested by the
+   * filters of the record (see RecordFilter).
+   * @param i index of the field
+   * @return a window reused for the next field, or null if the field is missing
+   */
+  public CharSequence getTrimmedChars(int i)
+  {
+    if(!isPresent(i))
+      return null;
+
+    FieldView f = rawField(i);
+    convHelper.transformChars(f, layout.elements[i]);
+    return f.trim(" \t", true, true);
+  }
+
+  /**
+   * @param i index of the field
+   * @return the field as a string or null if missing
+   */
+  public String getString(int i)
+  {
+    CharSequence cs = getChars(i);
+    return cs == null ? null : cs.toString();
+  }
+
+  public String getString(String beanRef)
+  {
+    return getString(indexOf(beanRef));
+  }
+
+  /**
+   * @param i index of the field
+   * @return the value (0 if blank or missing)
+   * @throws FlatwormConversionException
+   */
+  public int getInt(int i)
+     throws FlatwormConversionException
+  {
+    CharSequence cs = getChars(i);
+    if(cs == null || cs.length() == 0)
+      return 0;
+
+    try
+    {
+      return Util.parseInt(cs);
+    }
+    catch(NumberFormatException ex)
+    {
+      throw conversionError(i, cs);
+    }
+  }
+
+  public int getInt(String beanRef)
+     throws FlatwormConversionException
+  {
+    return getInt(indexOf(beanRef));
+  }
+
+  /**
+   * @param i index of the field
+   * @return the value (0 if blank or missing)
+   * @throws FlatwormConversionException
+   */
+  public long getLong(int i)
+     throws FlatwormConversionException
+  {
+    CharSequence cs = getChars(i);
+    if(cs == null || cs.length() == 0)
+      return 0;
+
+    try
+    {
+      return Util.parseLong(cs);
+    }
+    catch(NumberFormatException ex)
+    {
+      throw conversionError(i, cs);
+    }
+  }
+
+  public long getLong(String beanRef)
+     throws FlatwormConversionException
+  {
+    return getLong(indexOf(beanRef));
+  }
+
+  /**
+   * Decimal value, with the decimal-implied and decimal-places options of the field.
+   * @param i index of the field
+   * @return the value (0 if blank or missing)
+   * @throws FlatwormConversionException
+   */
+  public double getDecimal(int i)
+     throws FlatwormConversionException
+  {
+    CharSequence cs = getChars(i);
+    if(cs == null || cs.length() == 0)
+      return 0;
+
+    if(Double.isNaN(layout.divisor[i]))
+      throw conversionError(i, cs);
+
+    try
+    {
+      return Util.parseDouble(cs) / layout.divisor[i];
+    }
+    catch(NumberFormatException ex)
+    {
+      throw conversionError(i, cs);
+    }
+  }
+
+  public double getDecimal(String beanRef)
+     throws FlatwormConversionException
+  {
+    return getDecimal(indexOf(beanRef));
+  }
+
+  /**
+   * The field converted by its converter, as it would be set in the bean.
+   * @param i index of the field
+   * @return the value or null if missing
+   * @throws FlatwormConversionException
+   */
+  public Object getObject(int i)
+     throws FlatwormConversionException
+  {
+    // the converter applies the conversion options
+    if(!isPresent(i))
+      return null;
+
+    return convHelper.convertChars(layout.elements[i], rawField(i));
+  }
+
+  public Object getObject(String beanRef)
+     throws FlatwormConversionException
+  {
+    return getObject(indexOf(beanRef));
+  }
+
+  /**
+   * @return the field before the conversion options (it must be present)
+   */
+  protected FieldView rawField(int i)
+  {
+    int l = layout.lineOf[i];
+    if(layout.lines[l].isDelimeted())
+      return tokenizer.field(bounds[i * 2], field);
+
+    return field.reset(lines[l], bounds[i * 2], bounds[i * 2 + 1]);
+  }
+
+  protected FlatwormConversionException conversionError(int i, CharSequence value)
+  {
+    return new FlatwormConversionException("Converting field " + layout.elements[i].getBeanRef()
+       + " with value '" + value + "'");
+  }
+
+  /**
+   * Compute the bounds of the fields of a line (for delimited lines: the index of the token).
+   * @param l index of the line
+   */
+  protected void resolve(int l)
+  {
+    if(resolved[l])
+      return;
+
+    resolved[l] = true;
+    int from = layout.firstOfLine[l];
+    int to = layout.firstOfLine[l + 1];
+    CharSequence input = lines[l];
+
+    if(input == null)
+    {
+      for(int i = from; i < to; i++)
+        bounds[i * 2] = -1;
+      return;
+    }
+
+    Line line = layout.lines[l];
+    if(line.isDelimeted())
+    {
+      // only one delimited line is tokenized at a time
+      if(tokenizer == null)
+        tokenizer = new DelimitedTokenizer();
+      for(int k = 0; k < lineCount; k++)
+      {
+        if(k != l && layout.lines[k].isDelimeted())
+          resolved[k] = false;
+      }
+
+      tokenizer.setDelimiter(line.getDelimeter(), line.chrQuote);
+      int count = tokenizer.tokenize(input);
+      for(int i = from; i < to; i++)
+        bounds[i * 2] = i - from < count ? i - from : -1;
+      return;
+    }
+
+    int len = input.length();
+    int charPos = 0;
+    boolean last = false;
+    for(int i = from; i < to; i++)
+    {
+      if(last)
+      {
+        bounds[i * 2] = -1;
+        continue;
+      }
+
+      RecordElement re = layout.elements[i];
+      int s = re.isFieldStartSet() ? re.fieldStart : charPos;
+      int e = charPos;
+
+      if(re.isFieldEndSet())
+        charPos = e = re.fieldEnd;
+
+      if(re.isFieldLengthSet())
+      {
+        int flen = re.fieldLength;
+        if(flen == 0)
+        {
+          e = len;
+          last = true;
+        }
+        else if(flen < 0)
+          e = len - flen;
+        else
+          e = s + flen;
+        charPos = e;
+      }
+
+      bounds[i * 2] = e > len ? -1 : s;
+      bounds[i * 2 + 1] = e;
+    }
+  }
+}
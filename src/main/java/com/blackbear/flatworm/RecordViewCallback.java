@@ -0,0 +1,10 @@
+package com.blackbear.flatworm;
+
+public interface RecordViewCallback
+{
+    /**
+     * Called for each record of the registered type.
+     * @param view cursor over the current record: it is reused for the next record, so it must not be kept
+     */
+    void processRecord(RecordView view);
+}
@@ -72,6 +72,19 @@ public class SegmentElement implements LineElement
         return fieldIdentMatchStrings.contains(id);
     }
 
+    /**
+     * Same as matchesId(String) without creating a string for the id.
+     */
+    public boolean matchesId(CharSequence id)
+    {
+        for (int i = 0; i < fieldIdentMatchStrings.size(); i++)
+        {
+            if (fieldIdentMatchStrings.get(i).contentEquals(id))
+                return true;
+        }
+        return false;
+    }
+
     public char getIdentTypeFlag()
     {
         return 'F';
@@ -0,0 +1,141 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decoding table of an encoding where every char is a single byte (ASCII, ISO-8859-x, windows-125x, ...).
+ * With these encodings char offsets are equal to byte offsets, so lines can be parsed directly from raw bytes
+ * decoding only the fields used.
+ */
+public class SingleByteCharset
+{
+  protected final Charset charset;
+  protected final char[] table;
+
+  protected SingleByteCharset(Charset charset, char[] table)
+  {
+    this.charset = charset;
+    this.table = table;
+  }
+
+  /**
+   * Build the decoding table for the encoding.
+   * @param encoding name of the encoding
+   * @return the table or null if the encoding is unknown or not a single byte encoding
+   */
+  public static SingleByteCharset forName(String encoding)
+  {
+    try
+    {
+      return forCharset(Charset.forName(encoding));
+    }
+    catch(IllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Build the decoding table for the encoding.
+   * @param cs the encoding
+   * @return the table or null if cs is not a single byte encoding
+   */
+  public static SingleByteCharset forCharset(Charset cs)
+  {
+    if(!cs.canEncode()
+       || cs.newEncoder().maxBytesPerChar() != 1.0f
+       || cs.newDecoder().maxCharsPerByte() != 1.0f)
+      return null;
+
+    byte[] all = new byte[256];
+    for(int i = 0; i < all.length; i++)
+      all[i] = (byte) i;
+
+    try
+    {
+      CharBuffer decoded = cs.newDecoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE)
+         .decode(ByteBuffer.wrap(all));
+
+      if(decoded.remaining() != all.length)
+        return null;
+
+      char[] table = new char[all.length];
+      decoded.get(table);
+
+      // line framing is done on the raw bytes
+      if(table['\n'] != '\n' || table['\r'] != '\r')
+        return null;
+
+      return new SingleByteCharset(cs, table);
+    }
+    catch(CharacterCodingException e)
+    {
+      return null;
+    }
+  }
+
+  public Charset getCharset()
+  {
+    return charset;
+  }
+
+  public char decode(byte b)
+  {
+    return table[b & 0xFF];
+  }
+
+  /**
+   * @param c a char
+   * @return the byte that decodes to c (0-255) or -1 if c is not in the encoding
+   */
+  public int encode(char c)
+  {
+    if(c < table.length && table[c] == c)
+      return c;
+
+    for(int i = 0; i < table.length; i++)
+    {
+      if(table[i] == c)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Decode a portion of the buffer.
+   * @param buf the buffer (position and limit are ignored)
+   * @param offset absolute offset of first byte
+   * @param length number of bytes
+   * @return the decoded string
+   */
+  public String decode(ByteBuffer buf, int offset, int length)
+  {
+    if(buf.hasArray())
+      return new String(buf.array(), buf.arrayOffset() + offset, length, charset);
+
+    char[] chars = new char[length];
+    for(int i = 0; i < length; i++)
+      chars[i] = table[buf.get(offset + i) & 0xFF];
+
+    return new String(chars);
+  }
+}
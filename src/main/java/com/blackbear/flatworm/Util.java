@@ -14,9 +14,7 @@
 package com.blackbear.flatworm;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
@@ -31,12 +29,19 @@ public final class Util
   protected static Pattern lettersOnly = Pattern.compile("[^A-Za-z]+");
   protected static Pattern numbersOrLettersOnly = Pattern.compile("[^A-Za-z0-9]+");
 
+  // powers of ten exactly representable as double
+  private static final double[] POW10 =
+  {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
   /**
    * <code>split</code> divides a string into many strings based on a delimiter The main difference between this
    * split and the one that comes with Java is this one will ignore delimiters that are within quoted fields
    * <p>
    * <b>NOTE:</b> Delimiter will be ignored once chrQuote is encountered. Consideration will begin once matching
-   * chrQuote is encountered
+   * chrQuote is encountered. Inside quotes a doubled chrQuote is a literal quote.
    * </p>
    *
    * @param str The string you want to split
@@ -46,30 +51,154 @@ public final class Util
    */
   public static String[] split(String str, char chrSplit, char chrQuote)
   {
-    List<String> tokens = new ArrayList<String>();
-    String str1 = new String();
-    boolean inQuote = false;
+    DelimitedTokenizer tokenizer = new DelimitedTokenizer(String.valueOf(chrSplit), chrQuote);
+    tokenizer.tokenize(str);
+    return tokenizer.toArray();
+  }
+
+  /**
+   * Same as <code>String.regionMatches</code> but usable on any <code>CharSequence</code>.
+   *
+   * @param cs the sequence to test
+   * @param toffset starting offset of the subregion in cs
+   * @param other the string argument
+   * @param ooffset starting offset of the subregion in the string argument
+   * @param len the number of characters to compare
+   * @return true if the specified subregions match
+   */
+  public static boolean regionMatches(CharSequence cs, int toffset, String other, int ooffset, int len)
+  {
+    if(cs instanceof String)
+      return ((String) cs).regionMatches(toffset, other, ooffset, len);
+
+    if(toffset < 0 || ooffset < 0 || toffset > (long) cs.length() - len || ooffset > (long) other.length() - len)
+      return false;
 
-    for(int i = 0; i < str.length(); i++)
+    for(int i = 0; i < len; i++)
     {
-      if(str.charAt(i) == chrSplit && !inQuote)
-      {
-        tokens.add(str1);
-        str1 = new String();
-      }
-      else if(str.charAt(i) == chrQuote)
+      if(cs.charAt(toffset + i) != other.charAt(ooffset + i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Same as <code>Integer.parseInt</code> but usable on any <code>CharSequence</code> without creating a string.
+   *
+   * @param cs the characters to parse
+   * @return the value
+   * @throws NumberFormatException if cs is not a valid integer
+   */
+  public static int parseInt(CharSequence cs)
+  {
+    return (int) parseLong(cs, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Same as <code>Long.parseLong</code> but usable on any <code>CharSequence</code> without creating a string.
+   *
+   * @param cs the characters to parse
+   * @return the value
+   * @throws NumberFormatException if cs is not a valid long
+   */
+  public static long parseLong(CharSequence cs)
+  {
+    return parseLong(cs, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  protected static long parseLong(CharSequence cs, long min, long max)
+  {
+    int len = cs.length();
+    int i = 0;
+    boolean negative = false;
+
+    if(len > 0 && (cs.charAt(0) == '-' || cs.charAt(0) == '+'))
+    {
+      negative = cs.charAt(0) == '-';
+      i++;
+    }
+
+    if(i == len)
+      throw new NumberFormatException("For input string: \"" + cs + "\"");
+
+    // accumulate negatively, as the JDK does, to reach the minimum value
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long result = 0;
+
+    for(; i < len; i++)
+    {
+      int digit = Character.digit(cs.charAt(i), 10);
+      if(digit < 0 || result < multmin)
+        throw new NumberFormatException("For input string: \"" + cs + "\"");
+
+      result *= 10;
+      if(result < limit + digit)
+        throw new NumberFormatException("For input string: \"" + cs + "\"");
+
+      result -= digit;
+    }
+
+    return negative ? result : -result;
+  }
+
+  /**
+   * Same as <code>Double.parseDouble</code> but usable on any <code>CharSequence</code>.
+   * Plain decimals with at most 15 significant digits are converted without creating a string (the result is the
+   * same, since both the digits and the power of ten are exact doubles); any other form is passed to
+   * <code>Double.parseDouble</code>.
+   *
+   * @param cs the characters to parse
+   * @return the value
+   * @throws NumberFormatException if cs is not a valid double
+   */
+  public static double parseDouble(CharSequence cs)
+  {
+    int len = cs.length();
+    int i = 0;
+    boolean negative = false;
+
+    if(len > 0 && (cs.charAt(0) == '-' || cs.charAt(0) == '+'))
+    {
+      negative = cs.charAt(0) == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean dot = false;
+    boolean any = false;
+
+    for(; i < len; i++)
+    {
+      char c = cs.charAt(i);
+      if(c >= '0' && c <= '9')
       {
-        inQuote = (!inQuote);
+        any = true;
+        if(dot)
+          scale++;
+
+        // leading zeros are not significant
+        if(mantissa == 0 && c == '0')
+          continue;
+
+        if(++digits > 15)
+          return Double.parseDouble(cs.toString());
+
+        mantissa = mantissa * 10 + (c - '0');
       }
+      else if(c == '.' && !dot)
+        dot = true;
       else
-      {
-        str1 += str.charAt(i);
-      }
+        return Double.parseDouble(cs.toString());
     }
 
-    tokens.add(str1);
+    if(!any || scale >= POW10.length)
+      return Double.parseDouble(cs.toString());
 
-    return tokens.toArray(new String[0]);
+    double d = scale == 0 ? mantissa : mantissa / POW10[scale];
+    return negative ? -d : d;
   }
 
   /**
@@ -205,6 +334,37 @@ public final class Util
     return str;
   }
 
+  /**
+   * Remove the padding from a field view, moving its window (see justify(String, String, Map, int)).
+   *
+   * @param field field to be justified
+   * @param value specifies the type of justification. Can be ('left'|'right'|'both') - default value is 'both' if not
+   * specified
+   * @param options collection of ConversionOptions to gather further justification options
+   */
+  public static void justify(FieldView field, String value, Map<String, ConversionOption> options)
+  {
+    if(value == null)
+      value = "both";
+
+    String strPadChar = getValue(options, "pad-character");
+    if(strPadChar == null)
+      strPadChar = " ";
+
+    switch(value.toLowerCase())
+    {
+      case "left":
+        field.trim(strPadChar, true, false);
+        break;
+      case "right":
+        field.trim(strPadChar, false, true);
+        break;
+      case "both":
+        field.trim(strPadChar, true, true);
+        break;
+    }
+  }
+
   protected static boolean isPadChar(char c, String strPadChar)
   {
     return strPadChar.indexOf(c) != -1;
@@ -225,20 +385,30 @@ public final class Util
    * @return the string stripped of the specified character types
    */
   public static String strip(String str, String value, Map<String, ConversionOption> options)
+  {
+    Pattern p = stripPattern(value);
+    return p == null ? str : p.matcher(str).replaceAll("");
+  }
+
+  /**
+   * @param value type of characters to be stripped (see strip())
+   * @return the pattern matching the characters to remove, or null if value is not a known type
+   */
+  public static Pattern stripPattern(String value)
   {
     switch(StringOper.okStr(value).toLowerCase())
     {
       case "non-numeric":
-        return numbersOnly.matcher(str).replaceAll("");
+        return numbersOnly;
 
       case "non-alpha":
-        return lettersOnly.matcher(str).replaceAll("");
+        return lettersOnly;
 
       case "non-alphanumeric":
-        return numbersOrLettersOnly.matcher(str).replaceAll("");
+        return numbersOrLettersOnly;
     }
 
-    return str;
+    return null;
   }
 
   /**
@@ -264,6 +434,23 @@ public final class Util
     return str;
   }
 
+  /**
+   * Same as substring(String, String, Map) on a field view: only the window is moved.
+   *
+   * @param field value of field
+   * @param value a string containing the beginning index and the ending index of the desired substring, separated by a
+   * comma ','
+   * @param options collection of ConversionOptions, for future enhancement
+   */
+  public static void substring(FieldView field, String value, Map<String, ConversionOption> options)
+  {
+    String[] args = value.split(",");
+    if(args.length < 2)
+      throw new RuntimeException("Error in format specified: must be 'idxStar, idxStop'.");
+
+    field.narrow(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+  }
+
   /**
    * If str is length zero (after trimming), value is returned. Default values <b>should not</b> be specified in the
    * flatworm XML file when you want a string of only spaces.
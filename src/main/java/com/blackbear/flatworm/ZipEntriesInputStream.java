@@ -0,0 +1,92 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads all the entries of a zip archive as a single stream.
+ * Directories are skipped and a '\n' is added after each entry, so the last line of an entry is never joined with
+ * the first line of the next one (the resulting empty lines are ignored by the parser).
+ */
+public class ZipEntriesInputStream extends InputStream
+{
+  protected final ZipInputStream zin;
+  protected boolean inEntry = false;
+  protected boolean separator = false;
+  protected boolean eof = false;
+
+  public ZipEntriesInputStream(InputStream in)
+  {
+    this.zin = new ZipInputStream(in);
+  }
+
+  @Override
+  public int read()
+     throws IOException
+  {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len)
+     throws IOException
+  {
+    if(len == 0)
+      return 0;
+
+    while(!eof)
+    {
+      if(separator)
+      {
+        separator = false;
+        b[off] = '\n';
+        return 1;
+      }
+
+      if(inEntry)
+      {
+        int n = zin.read(b, off, len);
+        if(n > 0)
+          return n;
+
+        if(n < 0)
+        {
+          inEntry = false;
+          separator = true;
+        }
+        continue;
+      }
+
+      ZipEntry entry = zin.getNextEntry();
+      if(entry == null)
+        eof = true;
+      else if(!entry.isDirectory())
+        inEntry = true;
+    }
+
+    return -1;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    zin.close();
+  }
+}
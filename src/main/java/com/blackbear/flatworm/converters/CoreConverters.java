@@ -254,11 +254,26 @@ public class CoreConverters
    */
   public Double convertDecimal(String str, Map<String, ConversionOption> options)
      throws FlatwormConversionException
+  {
+    return convertDecimal((CharSequence) str, options);
+  }
+
+  /**
+   * Same as convertDecimal(String, Map) but parses the field view without creating a string.
+   *
+   * @param str The source characters
+   * @param options The conversion-option values for the field
+   * @return The converted double value
+   * @throws FlatwormConversionException If the source number fails to parse as a double or the decimal places option
+   * fails to parse as an integer value.
+   */
+  public Double convertDecimal(CharSequence str, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
   {
     try
     {
       int decimalPlaces = 0;
-      ConversionOption conv = (ConversionOption) options.get("decimal-places");
+      ConversionOption conv = options.get("decimal-places");
 
       String decimalPlacesOption = null;
       if(null != conv)
@@ -273,14 +288,14 @@ public class CoreConverters
         return 0.0D;
 
       if(decimalImplied)
-        return Double.parseDouble(str) / Math.pow(10D, decimalPlaces);
+        return Util.parseDouble(str) / Math.pow(10D, decimalPlaces);
       else
-        return Double.valueOf(str);
+        return Util.parseDouble(str);
     }
     catch(NumberFormatException ex)
     {
       log.error(ex);
-      throw new FlatwormConversionException(str);
+      throw new FlatwormConversionException(str.toString());
     }
   }
 
@@ -293,7 +308,7 @@ public class CoreConverters
     }
 
     int decimalPlaces = 0;
-    ConversionOption conv = (ConversionOption) options.get("decimal-places");
+    ConversionOption conv = options.get("decimal-places");
 
     String decimalPlacesOption = null;
     if(null != conv)
@@ -333,22 +348,32 @@ public class CoreConverters
    */
   public Integer convertInteger(String str, Map<String, ConversionOption> options)
      throws FlatwormConversionException
+  {
+    return convertInteger((CharSequence) str, options);
+  }
+
+  /**
+   * Same as convertInteger(String, Map) but parses the field view without creating a string.
+   *
+   * @param str The source characters
+   * @param options The conversion-option values for the field
+   * @return The converted integer value
+   * @throws FlatwormConversionException If the source number fails to parse as an integer value.
+   */
+  public Integer convertInteger(CharSequence str, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
   {
     try
     {
       if(str.length() == 0)
-      {
         return 0;
-      }
-      else
-      {
-        return Integer.valueOf(str);
-      }
+
+      return Util.parseInt(str);
     }
     catch(NumberFormatException ex)
     {
       log.error(ex);
-      throw new FlatwormConversionException(str);
+      throw new FlatwormConversionException(str.toString());
     }
   }
 
@@ -372,22 +397,32 @@ public class CoreConverters
    */
   public Long convertLong(String str, Map<String, ConversionOption> options)
      throws FlatwormConversionException
+  {
+    return convertLong((CharSequence) str, options);
+  }
+
+  /**
+   * Same as convertLong(String, Map) but parses the field view without creating a string.
+   *
+   * @param str The source characters
+   * @param options The conversion-option values for the field
+   * @return The converted long value
+   * @throws FlatwormConversionException If the source number fails to parse as an long value.
+   */
+  public Long convertLong(CharSequence str, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
   {
     try
     {
       if(str.length() == 0)
-      {
         return 0L;
-      }
-      else
-      {
-        return Long.valueOf(str);
-      }
+
+      return Util.parseLong(str);
     }
     catch(NumberFormatException ex)
     {
       log.error(ex);
-      throw new FlatwormConversionException(str);
+      throw new FlatwormConversionException(str.toString());
     }
   }
 
@@ -425,11 +460,26 @@ public class CoreConverters
    */
   public BigDecimal convertBigDecimal(String str, Map<String, ConversionOption> options)
      throws FlatwormConversionException
+  {
+    return convertBigDecimal((CharSequence) str, options);
+  }
+
+  /**
+   * Same as convertBigDecimal(String, Map) but parses the field view without creating a string.
+   *
+   * @param str The source characters
+   * @param options The conversion-option values for the field
+   * @return The converted big decimal value
+   * @throws FlatwormConversionException If the source number fails to parse as a big decimal or the decimal places
+   * option fails to parse as an integer value.
+   */
+  public BigDecimal convertBigDecimal(CharSequence str, Map<String, ConversionOption> options)
+     throws FlatwormConversionException
   {
     try
     {
       int decimalPlaces = 0;
-      String decimalPlacesOption = (String) Util.getValue(options, "decimal-places");
+      String decimalPlacesOption = Util.getValue(options, "decimal-places");
       boolean decimalImplied = "true".equals(Util.getValue(options, "decimal-implied"));
 
       if(decimalPlacesOption != null)
@@ -439,14 +489,14 @@ public class CoreConverters
         return new BigDecimal(0.0D);
 
       if(decimalImplied)
-        return new BigDecimal(Double.parseDouble(str) / Math.pow(10D, decimalPlaces));
+        return new BigDecimal(Util.parseDouble(str) / Math.pow(10D, decimalPlaces));
       else
-        return new BigDecimal(Double.parseDouble(str));
+        return new BigDecimal(Util.parseDouble(str));
     }
     catch(NumberFormatException ex)
     {
       log.error(ex);
-      throw new FlatwormConversionException(str);
+      throw new FlatwormConversionException(str.toString());
     }
   }
 
@@ -0,0 +1,49 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ * 
+ */
+
+package com.blackbear.flatworm.errors;
+
+/**
+ * Wraps a FlatwormException where a checked exception can not be thrown (streams, worker threads).
+ * The input line that caused the exception is preserved.
+ */
+
+public class FlatwormUncheckedException extends RuntimeException
+{
+    protected static final long serialVersionUID = 3018624175220356421L;
+
+    protected final String inputLine;
+
+    public FlatwormUncheckedException(FlatwormException cause, String inputLine)
+    {
+        super(cause.getMessage(), cause);
+        this.inputLine = inputLine;
+    }
+
+    @Override
+    public synchronized FlatwormException getCause()
+    {
+        return (FlatwormException) super.getCause();
+    }
+
+    /**
+     * Gets the input line that caused the exception.
+     * 
+     * @return the line, or null if not available
+     */
+    public String getInputLine()
+    {
+        return inputLine;
+    }
+}
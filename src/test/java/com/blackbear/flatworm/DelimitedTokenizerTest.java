@@ -0,0 +1,129 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tokenization of delimited lines, both on strings and on raw bytes (ByteCharSequence, scanned by ByteScanner).
+ */
+public class DelimitedTokenizerTest
+{
+  protected static final SingleByteCharset LATIN1 = SingleByteCharset.forName("ISO-8859-1");
+
+  /**
+   * Tokenize a line as a string and as raw bytes, the tokens must be the same.
+   */
+  protected static String[] tokenize(String line, String delimiter, char quote)
+  {
+    DelimitedTokenizer tokenizer = new DelimitedTokenizer(delimiter, quote);
+    tokenizer.tokenize(line);
+    String[] tokens = tokenizer.toArray();
+
+    // the line in the middle of a larger buffer, like a line of a mapped file
+    byte[] raw = ("xx\n" + line + "\nyy").getBytes(StandardCharsets.ISO_8859_1);
+    ByteCharSequence bytes = new ByteCharSequence(LATIN1, ByteBuffer.wrap(raw), 3, line.length());
+    tokenizer.tokenize(bytes);
+    assertArrayEquals("bytes: " + line, tokens, tokenizer.toArray());
+
+    return tokens;
+  }
+
+  protected static String[] tokens(String... tokens)
+  {
+    return tokens;
+  }
+
+  @Test
+  public void testPlain()
+  {
+    assertArrayEquals(tokens("a", "bc", "def"), tokenize("a,bc,def", ",", '"'));
+    assertArrayEquals(tokens("abc"), tokenize("abc", ",", '"'));
+    assertArrayEquals(tokens(""), tokenize("", ",", '"'));
+  }
+
+  @Test
+  public void testDoubledQuote()
+  {
+    assertArrayEquals(tokens("a\"b"), tokenize("\"a\"\"b\"", ",", '"'));
+    assertArrayEquals(tokens("x", "a\"b", "y"), tokenize("x,\"a\"\"b\",y", ",", '"'));
+    assertArrayEquals(tokens("\""), tokenize("\"\"\"\"", ",", '"'));
+  }
+
+  @Test
+  public void testQuotedDelimiter()
+  {
+    assertArrayEquals(tokens("a", "b,c", "d"), tokenize("a,\"b,c\",d", ",", '"'));
+    assertArrayEquals(tokens("a", "b,c,d"), tokenize("a,b\",c,\"d", ",", '"'));
+  }
+
+  @Test
+  public void testEmptyTokens()
+  {
+    assertArrayEquals(tokens("a", "b", ""), tokenize("a,b,", ",", '"'));
+    assertArrayEquals(tokens("", "", ""), tokenize(",,", ",", '"'));
+    assertArrayEquals(tokens("a", "", "c"), tokenize("a,\"\",c", ",", '"'));
+  }
+
+  @Test
+  public void testMultiCharDelimiter()
+  {
+    assertArrayEquals(tokens("a", "b", "c"), tokenize("a||b||c", "||", '"'));
+    assertArrayEquals(tokens("a|b", "c", ""), tokenize("a|b||c||", "||", '"'));
+    assertArrayEquals(tokens("a", "b||c"), tokenize("a||\"b||c\"", "||", '"'));
+  }
+
+  @Test
+  public void testLongLines()
+  {
+    // longer than the 8 bytes scanned at a time, with the delimiters at every offset of the words
+    StringBuilder sb = new StringBuilder();
+    String[] expected = new String[40];
+    for(int i = 0; i < expected.length; i++)
+    {
+      expected[i] = i % 7 == 3 ? "q;" + i + "\u00e9" : "w" + i + "\u00e8";
+      if(i > 0)
+        sb.append(';');
+      sb.append(i % 7 == 3 ? "'" + expected[i] + "'" : expected[i]);
+    }
+
+    assertArrayEquals(expected, tokenize(sb.toString(), ";", '\''));
+  }
+
+  @Test
+  public void testMaxTokens()
+  {
+    DelimitedTokenizer tokenizer = new DelimitedTokenizer(",", '"');
+    assertEquals(2, tokenizer.tokenize("a,b,c,d", 2));
+    assertEquals("a", tokenizer.getToken(0));
+    assertEquals("b", tokenizer.getToken(1));
+    assertTrue(tokenizer.tokenEquals(1, "b"));
+    assertFalse(tokenizer.tokenEquals(1, "bc"));
+  }
+
+  @Test
+  public void testSplit()
+  {
+    assertArrayEquals(tokens("a", "b,c", "d\"e", ""), Util.split("a,\"b,c\",\"d\"\"e\",", ',', '"'));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyDelimiter()
+  {
+    new DelimitedTokenizer("", '"');
+  }
+}
@@ -0,0 +1,261 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * A frozen FileFormat shared by several parsers running at the same time must give every parser the same records
+ * and the same error lines of a single parser.
+ */
+public class FileFormatConcurrencyTest
+{
+  protected static final int NUM_THREADS = 8;
+  protected static final int NUM_RECORDS = 20000;
+
+  protected File data;
+
+  /**
+   * Bean of all the records of the test format.
+   */
+  public static class Item
+  {
+    protected String code;
+    protected Integer qty;
+    protected Double amount;
+    protected String note;
+
+    public String getCode()
+    {
+      return code;
+    }
+
+    public void setCode(String code)
+    {
+      this.code = code;
+    }
+
+    public Integer getQty()
+    {
+      return qty;
+    }
+
+    public void setQty(Integer qty)
+    {
+      this.qty = qty;
+    }
+
+    public Double getAmount()
+    {
+      return amount;
+    }
+
+    public void setAmount(Double amount)
+    {
+      this.amount = amount;
+    }
+
+    public String getNote()
+    {
+      return note;
+    }
+
+    public void setNote(String note)
+    {
+      this.note = note;
+    }
+
+    @Override
+    public String toString()
+    {
+      return code + "," + qty + "," + amount + "," + note;
+    }
+  }
+
+  @Before
+  public void setUp()
+     throws IOException
+  {
+    data = File.createTempFile("flatworm", ".txt");
+
+    try (Writer out = new OutputStreamWriter(Files.newOutputStream(data.toPath()), StandardCharsets.ISO_8859_1))
+    {
+      for(int i = 0; i < NUM_RECORDS; i++)
+      {
+        String code = String.format("%04d", i % 10000);
+        switch(i % 5)
+        {
+          case 0:
+          case 4:
+            // a bad number now and then
+            String qty = i % 1013 == 5 ? "12x45" : String.format("%05d", i % 100000);
+            out.write("FX" + code + qty + String.format("%8d", i * 7) + "\n");
+            break;
+          case 1:
+            out.write("DL;" + code + ";" + i + ";\"note;" + i + "\"\n");
+            break;
+          case 2:
+            // a missing continuation line now and then: the error must report the first line of the record
+            out.write("ML" + code + "\n" + (i % 1009 == 12 ? "short" : String.format("note%6d", i)) + "\n");
+            break;
+          default:
+            out.write("FT" + code + String.format("%05d", i % 100) + "\n");
+        }
+
+        if(i % 997 == 0)
+          out.write("??unknown record " + i + "\n");
+      }
+    }
+  }
+
+  @After
+  public void tearDown()
+  {
+    data.delete();
+  }
+
+  protected FileFormat loadFormat(boolean generatedAccessors)
+     throws Exception
+  {
+    try (InputStream in = getClass().getResourceAsStream("concurrent-format.xml"))
+    {
+      FileFormat ff = new ConfigurationReader().loadConfigurationFile(in);
+      ff.setGeneratedAccessors(generatedAccessors);
+      ff.addFilter("filtered", "item.qty", FieldPredicate.between(0, 49));
+      ff.freeze();
+      return ff;
+    }
+  }
+
+  /**
+   * Parse the whole file, recording the beans and the errors with their line.
+   */
+  protected static List<String> parse(FileFormat ff, String file, boolean memoryMapped)
+     throws Exception
+  {
+    List<String> events = new ArrayList<String>();
+    FileParser parser = new FileParser(ff, file);
+    parser.setMemoryMapped(memoryMapped);
+    for(String name : ff.getRecords().keySet())
+    {
+      parser.addRecordCallback(name, (MatchedRecord record) ->
+         events.add(record.getRecordName() + " " + record.getBean("item")));
+    }
+    parser.setExceptionCallback((Exception ex, String lastLine) ->
+       events.add("error " + ex.getClass().getSimpleName() + " <" + lastLine + ">"));
+
+    parser.open();
+    try
+    {
+      parser.read();
+    }
+    finally
+    {
+      parser.close();
+    }
+    return events;
+  }
+
+  protected void checkConcurrentParsers(FileFormat ff)
+     throws Exception
+  {
+    String file = data.getAbsolutePath();
+    List<String> expected = parse(ff, file, false);
+
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    try
+    {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+      for(int i = 0; i < NUM_THREADS; i++)
+      {
+        boolean memoryMapped = i % 2 == 1;
+        Callable<List<String>> task = () ->
+        {
+          start.await();
+          return parse(ff, file, memoryMapped);
+        };
+        results.add(pool.submit(task));
+      }
+
+      start.countDown();
+      for(int i = 0; i < NUM_THREADS; i++)
+        assertEquals("parser " + i, expected, results.get(i).get());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSingleParser()
+     throws Exception
+  {
+    List<String> events = parse(loadFormat(false), data.getAbsolutePath(), false);
+
+    assertEquals("fixed 0000,0,0.0,null", events.get(0));
+    assertEquals("error FlatwormInvalidRecordException <??unknown record 0>", events.get(1));
+    assertEquals("delimited 0001,1,null,note;1", events.get(2));
+    assertEquals("multi 0002,null,null,note     2", events.get(3));
+    assertEquals("filtered 0003,3,null,null", events.get(4));
+    assertEquals("fixed 0004,4,0.28,null", events.get(5));
+    assertEquals("error FlatwormConversionException <FX000512x45      35>", events.get(6));
+    assertTrue(events.contains("error FlatwormInputLineLengthException <ML0012>"));
+
+    for(String event : events)
+    {
+      if(event.startsWith("filtered "))
+        assertTrue(event, Integer.parseInt(event.substring(14, event.indexOf(',', 14))) < 50);
+    }
+  }
+
+  @Test
+  public void testConcurrentParsers()
+     throws Exception
+  {
+    checkConcurrentParsers(loadFormat(false));
+  }
+
+  @Test
+  public void testConcurrentParsersWithGeneratedAccessors()
+     throws Exception
+  {
+    checkConcurrentParsers(loadFormat(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFrozenFormat()
+     throws Exception
+  {
+    loadFormat(false).addFilter("fixed", "item.qty", FieldPredicate.between(0, 10));
+  }
+}
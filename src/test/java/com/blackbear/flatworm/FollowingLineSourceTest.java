@@ -0,0 +1,96 @@
+/**
+ * Flatworm - A Java Flat File Importer Copyright (C) 2004 James M. Turner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ */
+package com.blackbear.flatworm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Lines read by FollowingLineSource, decoded (UTF-8) or as raw bytes (single byte encodings), with several lines
+ * in each read of the file.
+ */
+public class FollowingLineSourceTest
+{
+  protected File data;
+
+  @Before
+  public void setUp()
+     throws IOException
+  {
+    data = File.createTempFile("flatworm", ".txt");
+  }
+
+  @After
+  public void tearDown()
+  {
+    data.delete();
+  }
+
+  protected void append(String text, Charset charset)
+     throws IOException
+  {
+    Files.write(data.toPath(), text.getBytes(charset), StandardOpenOption.APPEND);
+  }
+
+  protected void checkFollow(Charset charset)
+     throws IOException
+  {
+    String accented = charset == StandardCharsets.UTF_8 ? "\u00e0\u00e8\u20ac" : "\u00e0\u00e8";
+    append("first line\nsecond " + accented + "\r\nthird\n", charset);
+
+    FollowingLineSource in = new FollowingLineSource(data.getAbsolutePath(), charset, false);
+    try
+    {
+      assertEquals("first line", in.readLine().toString());
+      assertEquals("second " + accented, in.readLine().toString());
+      assertEquals("third", in.readLine().toString());
+
+      // lines written after the opening, the last one only when complete
+      append("fourth\nfif", charset);
+      assertEquals("fourth", in.readLine().toString());
+      append("th " + accented + "\nsixth\n", charset);
+      assertEquals("fifth " + accented, in.readLine().toString());
+      assertEquals("sixth", in.readLine().toString());
+
+      in.stop();
+      assertNull(in.readLine());
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testFollowUtf8()
+     throws IOException
+  {
+    checkFollow(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testFollowSingleByte()
+     throws IOException
+  {
+    checkFollow(StandardCharsets.ISO_8859_1);
+  }
+}